@@ -39,6 +39,8 @@ public class FabricModFile extends ModFile {
     private IModLanguageProvider loader;
     private final ModFileFactory.ModFileInfoParser parser;
     private IModFileInfo modFileInfo;
+    private FabricModJson modJson;
+    private boolean modJsonRead;
 
     public FabricModFile(Path path, IModLocator locator, ModFileFactory.ModFileInfoParser parser) {
         super(path, locator, parser);
@@ -108,6 +110,16 @@ public class FabricModFile extends ModFile {
         return locator;
     }
 
+    /**
+     * Sets fabric.mod.json parsed by the locator, so it isn't read again when identifying mods
+     *
+     * @param modJson parsed fabric.mod.json, or null if it is invalid and the error was already logged
+     */
+    void setModJson(FabricModJson modJson) {
+        this.modJson = modJson;
+        this.modJsonRead = true;
+    }
+
     @Override
     public String toString() {
         return "Fabric Mod File: " + getFilePath();
@@ -119,6 +131,12 @@ public class FabricModFile extends ModFile {
 
     private static IModFileInfo createForgeModFileInfo(IModFile modFile) {
         LOGGER.debug("Potential Fabric mod: {}", modFile.getFilePath());
+
+        if (modFile instanceof FabricModFile && ((FabricModFile) modFile).modJsonRead) {
+            FabricModJson preparsedModJson = ((FabricModFile) modFile).modJson;
+            return preparsedModJson != null ? createForgeModFileInfo(modFile, preparsedModJson) : null;
+        }
+
         Path modJson = modFile.findResource("fabric.mod.json");
 
         if (!Files.exists(modJson)) {
@@ -133,19 +151,7 @@ public class FabricModFile extends ModFile {
             FabricModJson parsedModJson = FabricModJson.parseJson(modJson);
 
             if (parsedModJson != null) {
-                LOGGER.debug("Found {}@{}", parsedModJson.getModId(), parsedModJson.getVersion());
-
-                try {
-                    // ModFileInfo constructor is package-private, so it has to be instantiated through reflection
-                    Constructor<ModFileInfo> constructor = ModFileInfo.class.getDeclaredConstructor(ModFile.class, IConfigurable.class);
-                    constructor.setAccessible(true);
-
-                    return constructor.newInstance((ModFile) modFile, ConfigWrapper.Builder.fromJson(parsedModJson));
-                } catch (InstantiationException | IllegalAccessException | NoSuchMethodException e) {
-                    LOGGER.debug("Refection based Forge ModFileInfo creator failed: {}", () -> e);
-                } catch (InvocationTargetException e) {
-                    LOGGER.debug("Refection based Forge ModFileInfo creator failed: {}", e::getTargetException);
-                }
+                return createForgeModFileInfo(modFile, parsedModJson);
             }
         } catch (IOException e) {
             LOGGER.fatal("Error occurred while trying to parse {} fabric.mod.json: {}", modFile, e);
@@ -153,4 +159,22 @@ public class FabricModFile extends ModFile {
 
         return null;
     }
+
+    private static IModFileInfo createForgeModFileInfo(IModFile modFile, FabricModJson parsedModJson) {
+        LOGGER.debug("Found {}@{}", parsedModJson.getModId(), parsedModJson.getVersion());
+
+        try {
+            // ModFileInfo constructor is package-private, so it has to be instantiated through reflection
+            Constructor<ModFileInfo> constructor = ModFileInfo.class.getDeclaredConstructor(ModFile.class, IConfigurable.class);
+            constructor.setAccessible(true);
+
+            return constructor.newInstance((ModFile) modFile, ConfigWrapper.Builder.fromJson(parsedModJson));
+        } catch (InstantiationException | IllegalAccessException | NoSuchMethodException e) {
+            LOGGER.debug("Refection based Forge ModFileInfo creator failed: {}", () -> e);
+        } catch (InvocationTargetException e) {
+            LOGGER.debug("Refection based Forge ModFileInfo creator failed: {}", e::getTargetException);
+        }
+
+        return null;
+    }
 }
@@ -1,29 +1,27 @@
 package io.github.ramboxeu.chainmail.locating;
 
-import com.google.common.jimfs.Configuration;
-import com.google.common.jimfs.Jimfs;
-import com.google.common.jimfs.PathType;
 import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import com.google.gson.stream.JsonReader;
 import cpw.mods.modlauncher.api.LamdbaExceptionUtils;
+import io.github.ramboxeu.chainmail.modjson.FabricModJson;
+import io.github.ramboxeu.chainmail.remapper.RemappedJarCache;
+import io.github.ramboxeu.chainmail.utils.NestedJarCache;
 import io.github.ramboxeu.chainmail.utils.PathUtils;
 import net.minecraftforge.fml.loading.FMLPaths;
 import net.minecraftforge.fml.loading.moddiscovery.AbstractJarFileLocator;
 import net.minecraftforge.forgespi.locating.IModFile;
-import org.antlr.v4.runtime.ANTLRErrorStrategy;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.File;
 import java.io.IOException;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
+import java.util.stream.Collectors;
 
 /**
  * Locates mods in "mods" folder
@@ -31,15 +29,9 @@ import java.util.jar.Manifest;
 public class ModsFolderFabricModLocator extends AbstractJarFileLocator {
     private static final Logger LOGGER = LogManager.getLogger();
     private static final String JAR_SUFFIX = ".jar";
+    private static final int THREADS = Integer.getInteger("chainmail.discoveryThreads", Math.min(Runtime.getRuntime().availableProcessors(), 8));
 
     private final Path modsFolder;
-    private final FileSystem embeddedJarStorage = Jimfs.newFileSystem("FabricNestedJarStorage",
-            Configuration.builder(PathType.unix())
-                    .setRoots("/")
-                    .setWorkingDirectory("/")
-                    .setAttributeViews("basic")
-                    .build()
-    );
 
     public ModsFolderFabricModLocator() {
         LOGGER.info("ModsFolder locator constructed");
@@ -50,100 +42,147 @@ public class ModsFolderFabricModLocator extends AbstractJarFileLocator {
     public List<IModFile> scanMods() {
         LOGGER.info("Scanning mods folder {} for Fabric mods", modsFolder);
 
+        long start = System.nanoTime();
+        Stages stages = new Stages();
         List<IModFile> modFiles = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "Chainmail mod discovery");
+            thread.setDaemon(true);
+            return thread;
+        });
 
-        LamdbaExceptionUtils.uncheck(() -> Files.list(modsFolder))
-                .sorted(Comparator.comparing(PathUtils::sanitizePath))
-                .filter(path -> PathUtils.sanitizePath(path).endsWith(JAR_SUFFIX))
-                .forEach(path -> loadJar(path, modFiles));
-
-        return modFiles;
-    }
+        try {
+            List<Future<Discovery>> discoveries = LamdbaExceptionUtils.uncheck(() -> Files.list(modsFolder))
+                    .sorted(Comparator.comparing(PathUtils::sanitizePath))
+                    .filter(path -> PathUtils.sanitizePath(path).endsWith(JAR_SUFFIX))
+                    .map(path -> executor.submit(() -> discover(path, executor, stages)))
+                    .collect(Collectors.toList());
+
+            // Jars are opened concurrently, but collected here in the order of the sorted folder, each followed by
+            // its nested jars, like they were when loaded one by one
+            for (Future<Discovery> discovery : discoveries) {
+                collect(discovery, modFiles);
+            }
 
-    private void loadJar(Path path, List<IModFile> modFiles) {
-        FabricModFile modFile = FabricModFile.create(path, this);
-        FileSystem fs = createFileSystem(modFile);
+            // Every nested jar in the mods folder is mounted now, the transformation service finds the same ones
+            NestedJarCache.prune();
+        } finally {
+            executor.shutdownNow();
+        }
 
-        modJars.put(modFile, fs);
-        modFiles.add(modFile);
+        LOGGER.info("Found {} mod files in {} ms on {} threads, remapping {} ms, opening {} ms, parsing {} ms, mounting nested jars {} ms",
+                modFiles.size(), millis(System.nanoTime() - start), THREADS, millis(stages.remap.sum()), millis(stages.open.sum()),
+                millis(stages.parse.sum()), millis(stages.mount.sum()));
+        LOGGER.info("Remapped jar cache: {}", RemappedJarCache.getStats());
 
-        findEmbeddedJars(fs, modFiles);
+        return modFiles;
     }
 
-    private void findEmbeddedJars(FileSystem fs, List<IModFile> modFiles) { // use IModFile to get the "fabric.mod.json"
-        Path modJsonPath = fs.getPath("", "fabric.mod.json");
+    // modJars isn't thread safe, so mod files are only registered here, on the scanning thread
+    private void collect(Future<Discovery> future, List<IModFile> modFiles) {
+        Discovery discovery;
 
-        if (Files.exists(modJsonPath)) {
-            List<String> embeddedJars = getEmbeddedJarPaths(modJsonPath);
+        try {
+            discovery = future.get();
+        } catch (InterruptedException e) {
+            // A partial list would look like missing mods, not like an interrupted scan
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while scanning " + modsFolder, e);
+        } catch (ExecutionException e) {
+            LOGGER.error("Error loading mod file", e.getCause());
+            return;
+        }
 
-            if (embeddedJars != null) {
-                LOGGER.debug("Found embedded jars: {}", embeddedJars);
+        if (discovery == null) {
+            return;
+        }
 
-                for (String path : embeddedJars) {
-                    Path extractedJarPath = extractEmbeddedJar(fs.getPath("", path));
+        modJars.put(discovery.modFile, discovery.fs);
+        modFiles.add(discovery.modFile);
 
-                    if (extractedJarPath != null)
-                        loadJar(extractedJarPath, modFiles);
-                }
-            }
+        for (Future<Discovery> nested : discovery.nested) {
+            collect(nested, modFiles);
         }
     }
 
-    private Path extractEmbeddedJar(Path embeddedPath) {
-        try {
-            Path dest = modsFolder.resolve(embeddedPath.getFileName().toString());
+    private Discovery discover(Path path, ExecutorService executor, Stages stages) {
+        long start = System.nanoTime();
+        Path file = RemappedJarCache.resolve(path).orElse(path);
+        long remapped = System.nanoTime();
+        stages.remap.add(remapped - start);
 
-            if (Files.notExists(dest))
-                return Files.copy(embeddedPath, dest);
+        FabricModFile modFile = FabricModFile.create(file, this);
+        FileSystem fs = createFileSystem(modFile);
+        long opened = System.nanoTime();
+        stages.open.add(opened - remapped);
 
-            return dest;
-        } catch (IOException e) {
-            LOGGER.error("Failed to copy '{}' embedded jar", embeddedPath);
+        if (fs == null) {
+            return new Discovery(modFile, null, Collections.emptyList());
         }
 
-        return null;
-    }
+        Path modJsonPath = fs.getPath("", "fabric.mod.json");
+        JsonElement modJson = readModJson(modFile, modJsonPath);
 
-    private static List<String> getEmbeddedJarPaths(Path path) {
-        try (JsonReader reader = new JsonReader(Files.newBufferedReader(path))) {
-            JsonElement rootElem = new JsonParser().parse(reader);
+        if (modJson == null) {
+            stages.parse.add(System.nanoTime() - opened);
+            return new Discovery(modFile, fs, Collections.emptyList());
+        }
 
-            if (!rootElem.isJsonObject()) {
-                LOGGER.error("Root is not an object, couldn't read embedded jars");
-            } else {
-                JsonObject root = rootElem.getAsJsonObject();
+        // Parsed once here, Forge only builds the mod info from it later. Nested jars are read leniently, like the
+        // transformation service does, so they don't depend on the rest of the file being valid
+        modFile.setModJson(parseModJson(modJson, modJsonPath));
+        List<String> nestedJars = FabricModJson.parseNestedJars(modJson);
+        stages.parse.add(System.nanoTime() - opened);
 
-                if (root.has("jars")) {
-                    JsonElement jarsElem = root.get("jars");
+        if (nestedJars.isEmpty()) {
+            return new Discovery(modFile, fs, Collections.emptyList());
+        }
 
-                    if (jarsElem.isJsonArray()) {
-                        List<String> nestedJars = new ArrayList<>();
+        LOGGER.debug("Found embedded jars: {}", nestedJars);
 
-                        for (JsonElement jarEntryElem : jarsElem.getAsJsonArray()) {
-                            if (jarEntryElem.isJsonObject()) {
-                                JsonObject jarEntryObj = jarEntryElem.getAsJsonObject();
+        List<Future<Discovery>> nested = new ArrayList<>();
 
-                                if (jarEntryObj.has("file")) {
-                                    JsonElement fileElem = jarEntryObj.get("file");
+        // Tasks never wait on each other, only the scanning thread waits, so the bounded pool can't deadlock
+        for (String nestedPath : nestedJars) {
+            nested.add(executor.submit(() -> {
+                long mountStart = System.nanoTime();
+                Optional<Path> nestedJar = NestedJarCache.mount(fs.getPath(nestedPath));
+                stages.mount.add(System.nanoTime() - mountStart);
 
-                                    if (fileElem.isJsonPrimitive()) {
-                                        nestedJars.add(fileElem.getAsString());
-                                    }
-                                }
-                            }
-                        }
+                return nestedJar.isPresent() ? discover(nestedJar.get(), executor, stages) : null;
+            }));
+        }
+
+        return new Discovery(modFile, fs, nested);
+    }
 
-                        return nestedJars;
-                    }
-                }
+    // A missing fabric.mod.json is left to identifying mods, which tells Forge mods apart
+    private static JsonElement readModJson(FabricModFile modFile, Path modJsonPath) {
+        if (Files.exists(modJsonPath)) {
+            try {
+                return FabricModJson.readJson(modJsonPath);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Error while reading {}", modJsonPath.toUri(), e);
+                modFile.setModJson(null);
             }
-        } catch (IOException e) {
-            LOGGER.error("Error while reading embedded jars", e);
         }
 
         return null;
     }
 
+    private static FabricModJson parseModJson(JsonElement modJson, Path modJsonPath) {
+        try {
+            return FabricModJson.parseJson(modJson, modJsonPath.toString());
+        } catch (RuntimeException e) {
+            LOGGER.error("Error while parsing {}", modJsonPath.toUri(), e);
+            return null;
+        }
+    }
+
+    private static long millis(long nanos) {
+        return nanos / 1000000;
+    }
+
     @Override
     public Optional<Manifest> findManifest(Path file) {
         try (JarInputStream jarStream = new JarInputStream(Files.newInputStream(file), true)) {
@@ -167,4 +206,24 @@ public class ModsFolderFabricModLocator extends AbstractJarFileLocator {
     public void initArguments(Map<String, ?> arguments) {
 
     }
+
+    private static class Discovery {
+        private final FabricModFile modFile;
+        private final FileSystem fs;
+        private final List<Future<Discovery>> nested;
+
+        private Discovery(FabricModFile modFile, FileSystem fs, List<Future<Discovery>> nested) {
+            this.modFile = modFile;
+            this.fs = fs;
+            this.nested = nested;
+        }
+    }
+
+    // Time spent in each stage, summed over all threads
+    private static class Stages {
+        private final LongAdder remap = new LongAdder();
+        private final LongAdder open = new LongAdder();
+        private final LongAdder parse = new LongAdder();
+        private final LongAdder mount = new LongAdder();
+    }
 }
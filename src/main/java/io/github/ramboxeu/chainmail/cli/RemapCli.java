@@ -0,0 +1,169 @@
+package io.github.ramboxeu.chainmail.cli;
+
+import io.github.ramboxeu.chainmail.mappings.TinyNamingService;
+import io.github.ramboxeu.chainmail.remapper.JarRemapper;
+import io.github.ramboxeu.chainmail.utils.CacheUtils;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipFile;
+
+/**
+ * Remaps a mods folder ahead of time, without launching the game, for example while building a server image.
+ * <p>
+ * Fabric jars, and the jars nested in them, are remapped to srg names and marked, so Chainmail loads them as they are.
+ * Other jars are copied. The class path needs Chainmail with its mapping files, ASM, Log4j, Guava, Gson and
+ * modlauncher, but nothing is launched.
+ *
+ * <pre>
+ * java -cp ... io.github.ramboxeu.chainmail.cli.RemapCli &lt;mods&gt; &lt;output&gt;
+ *     [--game &lt;srg game jar&gt;] [--threads &lt;count&gt;]
+ * </pre>
+ *
+ * Without the game jar, jars whose classes inherit game members through game classes can't be fully remapped, those
+ * are copied as they are and remapped when the game loads them.
+ */
+public class RemapCli {
+    public static void main(String[] args) throws Exception {
+        Path mods = null;
+        Path output = null;
+        Path game = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--game") || args[i].equals("--threads")) {
+                if (i + 1 == args.length) {
+                    usage();
+                    return;
+                }
+
+                if (args[i].equals("--game")) {
+                    game = Paths.get(args[++i]);
+                } else {
+                    try {
+                        threads = Integer.parseInt(args[++i]);
+                    } catch (NumberFormatException e) {
+                        usage();
+                        return;
+                    }
+                }
+            } else if (args[i].startsWith("--")) {
+                usage();
+                return;
+            } else if (mods == null) {
+                mods = Paths.get(args[i]);
+            } else if (output == null) {
+                output = Paths.get(args[i]);
+            } else {
+                usage();
+                return;
+            }
+        }
+
+        if (mods == null || output == null || threads < 1) {
+            usage();
+            return;
+        }
+
+        List<Path> jars;
+
+        try (Stream<Path> files = Files.list(mods)) {
+            jars = files.filter(path -> path.toString().toLowerCase(Locale.ROOT).endsWith(".jar")).sorted().collect(Collectors.toList());
+        }
+
+        List<URL> classPath = new ArrayList<>();
+
+        for (Path jar : jars) {
+            classPath.add(jar.toUri().toURL());
+        }
+
+        if (game != null) {
+            classPath.add(game.toUri().toURL());
+        }
+
+        Files.createDirectories(output);
+
+        long start = System.nanoTime();
+        int failures = 0;
+
+        // One remapper for the whole folder, classes of the game and of other mods are read once
+        try (JarRemapper remapper = new JarRemapper(new TinyNamingService(true), classPath.toArray(new URL[0]), true)) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<String>> reports = new ArrayList<>(jars.size());
+
+            for (Path jar : jars) {
+                Path target = output.resolve(jar.getFileName().toString());
+                reports.add(executor.submit(() -> process(remapper, jar, target)));
+            }
+
+            executor.shutdown();
+
+            // Reports come in the order of the jars, whichever finishes first
+            for (int i = 0; i < jars.size(); i++) {
+                try {
+                    System.out.println(reports.get(i).get());
+                } catch (ExecutionException e) {
+                    System.out.println(jars.get(i).getFileName() + ": failed, " + e.getCause());
+                    failures++;
+                }
+            }
+        }
+
+        System.out.printf(Locale.ROOT, "%d jars in %d ms, %d failed%n", jars.size(), (System.nanoTime() - start) / 1000000, failures);
+
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static String process(JarRemapper remapper, Path jar, Path target) throws IOException {
+        String name = jar.getFileName().toString();
+
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            if (zip.getEntry("fabric.mod.json") == null) {
+                Files.copy(jar, target, StandardCopyOption.REPLACE_EXISTING);
+                return name + ": not a Fabric mod, copied";
+            }
+
+            if (remapper.isRemapped(zip)) {
+                Files.copy(jar, target, StandardCopyOption.REPLACE_EXISTING);
+                return name + ": already remapped, copied";
+            }
+        }
+
+        Path temp = Files.createTempFile(target.getParent(), name, ".tmp");
+
+        try {
+            JarRemapper.Result result = remapper.remap(jar, temp);
+
+            if (!result.isComplete()) {
+                Files.copy(jar, target, StandardCopyOption.REPLACE_EXISTING);
+                return name + ": some classes couldn't be read (pass --game), copied";
+            }
+
+            CacheUtils.moveAtomically(temp, target);
+
+            return String.format(Locale.ROOT, "%s: %d/%d classes remapped, %d unmapped intermediary names, %d ms, descriptor cache %s",
+                    name, result.getRemappedClasses(), result.getClasses(), result.getIntermediaryNames(), result.getNanos() / 1000000, result.getDescriptorCache());
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void usage() {
+        System.out.println("Usage: RemapCli <mods folder> <output folder> [--game <srg game jar>] [--threads <count>]");
+    }
+}
@@ -0,0 +1,91 @@
+package io.github.ramboxeu.chainmail.mappings;
+
+import io.github.ramboxeu.chainmail.utils.CacheUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.function.Supplier;
+
+/**
+ * Keeps built {@link MappingImage}s on disk, keyed by a hash of the source mapping files. Images are mapped read-only,
+ * so every JVM on the host using the same mappings shares the same pages.
+ */
+public class MappingCache {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    /**
+     * @return cached image for given mapping files, falls back to building (and caching) it with the builder
+     */
+    public static MappingImage load(URL tiny, URL srg, Supplier<MappingImage> builder) {
+        Path file;
+
+        try {
+            file = CacheUtils.getCacheDir("mappings").resolve(hash(tiny, srg) + ".bin");
+        } catch (IOException e) {
+            LOGGER.warn("Couldn't resolve mapping cache, building mappings in memory: {}", e.toString());
+            return builder.get();
+        }
+
+        if (Files.exists(file)) {
+            try {
+                MappingImage image = MappingImage.wrap(map(file));
+
+                if (image != null) {
+                    LOGGER.debug("Loaded cached mappings from {}", file);
+                    return image;
+                }
+
+                LOGGER.warn("Cached mappings {} are incompatible or damaged, rebuilding", file);
+            } catch (IOException | RuntimeException e) {
+                // A damaged file is a miss like any other, it's overwritten below
+                LOGGER.warn("Failed to map cached mappings {}, rebuilding: {}", file, e.toString());
+            }
+        }
+
+        MappingImage image = builder.get();
+
+        try {
+            CacheUtils.writeAtomically(file, image.getBuffer());
+            MappingImage mapped = MappingImage.wrap(map(file));
+
+            if (mapped != null) {
+                LOGGER.debug("Cached mappings to {}", file);
+                return mapped;
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Failed to cache mappings to {}: {}", file, e.toString());
+        }
+
+        return image;
+    }
+
+    private static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static String hash(URL tiny, URL srg) throws IOException {
+        MessageDigest digest = CacheUtils.newDigest();
+        digest.update((byte) MappingImage.VERSION);
+        update(digest, tiny);
+        update(digest, srg);
+
+        return CacheUtils.toHex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, URL url) throws IOException {
+        try (InputStream stream = url.openStream()) {
+            CacheUtils.update(digest, stream);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package io.github.ramboxeu.chainmail.mappings;
+
+import cpw.mods.modlauncher.api.INameMappingService.Domain;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Counts joined and missing Srg entries per {@link Domain}, keeping only the first few misses as examples, so a
+ * mismatched mapping version results in one report instead of thousands of log lines.
+ */
+class MappingCoverage {
+    private static final int SAMPLES = Integer.getInteger("chainmail.mappingSamples", 10);
+    private static final Domain[] DOMAINS = Domain.values();
+
+    private final int[] joined = new int[DOMAINS.length];
+    private final int[] missed = new int[DOMAINS.length];
+    private final List<List<String>> examples = new ArrayList<>(DOMAINS.length);
+
+    MappingCoverage() {
+        for (int i = 0; i < DOMAINS.length; i++) {
+            examples.add(new ArrayList<>(SAMPLES));
+        }
+    }
+
+    void joined(Domain domain) {
+        joined[domain.ordinal()]++;
+    }
+
+    void missed(Domain domain, String owner, String name, String descriptor) {
+        if (missed[domain.ordinal()]++ < SAMPLES) {
+            examples.get(domain.ordinal()).add(owner == null ? name : owner + "." + name + (descriptor == null ? "" : descriptor));
+        }
+    }
+
+    /**
+     * Adds counts of the other coverage, its examples are added after these ones
+     */
+    void merge(MappingCoverage other) {
+        for (int i = 0; i < DOMAINS.length; i++) {
+            joined[i] += other.joined[i];
+            missed[i] += other.missed[i];
+
+            List<String> samples = examples.get(i);
+
+            for (String example : other.examples.get(i)) {
+                if (samples.size() >= SAMPLES) {
+                    break;
+                }
+
+                samples.add(example);
+            }
+        }
+    }
+
+    boolean isComplete() {
+        for (int count : missed) {
+            if (count > 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    String report() {
+        StringBuilder builder = new StringBuilder("Mapping coverage:");
+
+        for (Domain domain : DOMAINS) {
+            int i = domain.ordinal();
+            int total = joined[i] + missed[i];
+            double coverage = total == 0 ? 100 : joined[i] * 100.0 / total;
+
+            builder.append(String.format(Locale.ROOT, "%n  %s: %d/%d joined (%.2f%%), %d missing from Tiny", domain, joined[i], total, coverage, missed[i]));
+
+            if (missed[i] > 0) {
+                builder.append(", e.g. ").append(examples.get(i));
+            }
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,569 @@
+package io.github.ramboxeu.chainmail.mappings;
+
+import cpw.mods.modlauncher.api.INameMappingService.Domain;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable intermediary to srg tables stored in a single {@link ByteBuffer}. The buffer is either built off-heap by
+ * {@link Builder} or memory-mapped from {@link MappingCache}, so lookups never need to materialize per-entry objects.
+ * Images are safe to share between threads without locking, the only mutable state are caches of decoded values.
+ * <p>
+ * Layout: header ({@link #MAGIC}, {@link #VERSION}, string pool offset, one name table offset per {@link Domain} for
+ * each direction, member index offset, total length), the name tables, the member index and the string pool with every string stored
+ * once as {@code u16 length + UTF-8 bytes}. Strings are referred to by their pool offset, which doubles as their
+ * interned id.
+ * Name tables and the owners of the member index are indexed by a {@link PerfectHash}, so they have no empty slots.
+ * <p>
+ * Name tables map bare intermediary names, as that's all {@link cpw.mods.modlauncher.api.INameMappingService} gets.
+ * Reverse name tables map the other way, sharing the same string pool. A name several names map to is stored with an
+ * empty value, so it isn't resolved to whichever of them happened to come first.
+ * The member index maps each intermediary class to its own method and field tables, keyed by name and descriptor ids.
+ */
+public class MappingImage {
+    public static final int MAGIC = 0x43484d49; // CHMI
+    public static final int VERSION = 6;
+
+    private static final Domain[] DOMAINS = Domain.values();
+    private static final int TABLE_COUNT = DOMAINS.length * 2;
+    private static final int LENGTH_OFFSET = 16 + TABLE_COUNT * 4;
+    private static final int HEADER_SIZE = LENGTH_OFFSET + 4;
+    private static final int ENTRY_SIZE = 12;
+    private static final int OWNER_SIZE = 24;
+    private static final int MEMBER_SIZE = 20;
+
+    private final ByteBuffer buffer;
+    private final int pool;
+    // Forward tables first, then reverse ones
+    private final Table[] tables = new Table[TABLE_COUNT];
+    private final Members members;
+
+    private MappingImage(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.pool = buffer.getInt(8);
+
+        for (int i = 0; i < TABLE_COUNT; i++) {
+            tables[i] = new Table(buffer.getInt(12 + i * 4));
+        }
+
+        this.members = new Members(buffer.getInt(12 + TABLE_COUNT * 4));
+    }
+
+    /**
+     * @return image backed by given buffer or null if the buffer doesn't contain a compatible image
+     */
+    public static MappingImage wrap(ByteBuffer buffer) {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            return null;
+        }
+
+        // Truncated or padded, for example a cache file written by a launch that was killed
+        if (buffer.getInt(LENGTH_OFFSET) != buffer.capacity() || !isInBounds(buffer)) {
+            return null;
+        }
+
+        return new MappingImage(buffer);
+    }
+
+    private static boolean isInBounds(ByteBuffer buffer) {
+        int pool = buffer.getInt(8);
+
+        if (pool < HEADER_SIZE || pool > buffer.capacity()) {
+            return false;
+        }
+
+        for (int i = 0; i <= TABLE_COUNT; i++) {
+            int offset = buffer.getInt(12 + i * 4);
+
+            if (offset < HEADER_SIZE || offset > pool - 4) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer.duplicate();
+    }
+
+    /**
+     * @return mapped name or null if the name isn't present in the table
+     */
+    public String get(Domain domain, String name) {
+        return tables[domain.ordinal()].get(name);
+    }
+
+    /**
+     * @return name the mapped name was mapped from, or null if it isn't present in the table or several names map to it
+     */
+    public String getReverse(Domain domain, String mappedName) {
+        String name = tables[DOMAINS.length + domain.ordinal()].get(mappedName);
+        return name == null || name.isEmpty() ? null : name;
+    }
+
+    /**
+     * @return whether several names map to the mapped name, so it can't be mapped back
+     */
+    public boolean isReverseAmbiguous(Domain domain, String mappedName) {
+        String name = tables[DOMAINS.length + domain.ordinal()].get(mappedName);
+        return name != null && name.isEmpty();
+    }
+
+    /**
+     * @param domain either {@link Domain#METHOD} or {@link Domain#FIELD}
+     * @return mapped name of the member declared exactly in the owner, or null if there's no such member
+     */
+    public String getMember(Domain domain, String owner, String name, String descriptor) {
+        return members.get(domain, owner, name, descriptor);
+    }
+
+    /**
+     * @return whether the class has any mapped members
+     */
+    public boolean hasMembers(String owner) {
+        return members.find(owner) >= 0;
+    }
+
+    public int size(Domain domain) {
+        return tables[domain.ordinal()].size;
+    }
+
+    public void forEach(Domain domain, BiConsumer<String, String> consumer) {
+        Table table = tables[domain.ordinal()];
+
+        for (int i = 0; i < table.size; i++) {
+            int entry = table.entries + i * ENTRY_SIZE;
+            consumer.accept(readString(buffer.getInt(entry + 4)), table.value(i));
+        }
+    }
+
+    /**
+     * Iterates over the member index, only {@link Domain#METHOD} and {@link Domain#FIELD} have members
+     */
+    public void forEachMember(Domain domain, MemberConsumer consumer) {
+        if (domain != Domain.CLASS) {
+            members.forEach(domain, consumer);
+        }
+    }
+
+    private String readString(int offset) {
+        int pos = pool + offset;
+        int length = buffer.getShort(pos) & 0xFFFF;
+        byte[] bytes = new byte[length];
+
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(pos + 2 + i);
+        }
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Compares without decoding, mapping names are ASCII so the slow path is practically never taken
+    private boolean matches(int offset, String name) {
+        int pos = pool + offset;
+        int length = buffer.getShort(pos) & 0xFFFF;
+
+        if (length != name.length()) {
+            // UTF-8 of non ASCII text is longer than its char count
+            return length > name.length() && readString(offset).equals(name);
+        }
+
+        for (int i = 0; i < length; i++) {
+            byte b = buffer.get(pos + 2 + i);
+
+            if (b < 0) {
+                return readString(offset).equals(name);
+            }
+
+            if (b != name.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static long memberKey(int nameHash, int descriptorHash) {
+        return ((long) nameHash << 32) | (descriptorHash & 0xFFFFFFFFL);
+    }
+
+    private class Table {
+        private final int size;
+        private final int displacements;
+        private final int entries;
+        // Decoded values, racy publication is fine as strings are immutable
+        private final String[] values;
+
+        private Table(int offset) {
+            this.size = buffer.getInt(offset);
+            this.displacements = offset + 4;
+            this.entries = displacements + PerfectHash.bucketCount(size) * 4;
+            this.values = new String[size];
+        }
+
+        private String get(String name) {
+            if (size == 0) {
+                return null;
+            }
+
+            int index = PerfectHash.slot(buffer, displacements, size, name);
+            int entry = entries + index * ENTRY_SIZE;
+
+            if (buffer.getInt(entry) == name.hashCode() && matches(buffer.getInt(entry + 4), name)) {
+                return value(index);
+            }
+
+            return null;
+        }
+
+        private String value(int index) {
+            String value = values[index];
+
+            if (value == null) {
+                value = readString(buffer.getInt(entries + index * ENTRY_SIZE + 8));
+                values[index] = value;
+            }
+
+            return value;
+        }
+    }
+
+    private class Members {
+        private final int ownerCount;
+        private final int displacements;
+        private final int owners;
+        private final int methods;
+        private final int fields;
+        private final String[] methodValues;
+        private final String[] fieldValues;
+
+        private Members(int offset) {
+            this.ownerCount = buffer.getInt(offset);
+            this.displacements = offset + 4;
+            this.owners = displacements + PerfectHash.bucketCount(ownerCount) * 4;
+
+            int methodCount = buffer.getInt(owners + ownerCount * OWNER_SIZE);
+            this.methods = owners + ownerCount * OWNER_SIZE + 4;
+
+            int fieldCount = buffer.getInt(methods + methodCount * MEMBER_SIZE);
+            this.fields = methods + methodCount * MEMBER_SIZE + 4;
+
+            this.methodValues = new String[methodCount];
+            this.fieldValues = new String[fieldCount];
+        }
+
+        // Returns the owner's id or -1
+        private int find(String owner) {
+            if (ownerCount == 0) {
+                return -1;
+            }
+
+            int index = PerfectHash.slot(buffer, displacements, ownerCount, owner);
+            int entry = owners + index * OWNER_SIZE;
+
+            if (buffer.getInt(entry) == owner.hashCode() && matches(buffer.getInt(entry + 4), owner)) {
+                return index;
+            }
+
+            return -1;
+        }
+
+        private String get(Domain domain, String owner, String name, String descriptor) {
+            int id = find(owner);
+
+            if (id < 0) {
+                return null;
+            }
+
+            boolean isMethod = domain == Domain.METHOD;
+            int entry = owners + id * OWNER_SIZE + (isMethod ? 8 : 16);
+            int start = buffer.getInt(entry);
+            int end = start + buffer.getInt(entry + 4);
+            int table = isMethod ? methods : fields;
+            long key = memberKey(name.hashCode(), descriptor.hashCode());
+
+            int low = start;
+            int high = end;
+
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+
+                if (key(table, mid) < key) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            for (int i = low; i < end && key(table, i) == key; i++) {
+                int member = table + i * MEMBER_SIZE;
+
+                if (matches(buffer.getInt(member + 8), name) && matches(buffer.getInt(member + 12), descriptor)) {
+                    return value(isMethod ? methodValues : fieldValues, member, i);
+                }
+            }
+
+            return null;
+        }
+
+        private void forEach(Domain domain, MemberConsumer consumer) {
+            boolean isMethod = domain == Domain.METHOD;
+            int table = isMethod ? methods : fields;
+
+            for (int owner = owners; owner < methods - 4; owner += OWNER_SIZE) {
+                String ownerName = readString(buffer.getInt(owner + 4));
+                int start = buffer.getInt(owner + (isMethod ? 8 : 16));
+                int end = start + buffer.getInt(owner + (isMethod ? 12 : 20));
+
+                for (int i = start; i < end; i++) {
+                    int member = table + i * MEMBER_SIZE;
+                    String value = value(isMethod ? methodValues : fieldValues, member, i);
+                    consumer.accept(ownerName, readString(buffer.getInt(member + 8)), readString(buffer.getInt(member + 12)), value);
+                }
+            }
+        }
+
+        private long key(int table, int index) {
+            int member = table + index * MEMBER_SIZE;
+            return memberKey(buffer.getInt(member), buffer.getInt(member + 4));
+        }
+
+        private String value(String[] values, int member, int index) {
+            String value = values[index];
+
+            if (value == null) {
+                value = readString(buffer.getInt(member + 16));
+                values[index] = value;
+            }
+
+            return value;
+        }
+    }
+
+    @FunctionalInterface
+    public interface MemberConsumer {
+        void accept(String owner, String name, String descriptor, String mappedName);
+    }
+
+    public static class Builder {
+        private final Map<Domain, Map<String, String>> tables = new EnumMap<>(Domain.class);
+        private final Map<String, Owner> owners;
+
+        public Builder() {
+            this(16, 16, 16);
+        }
+
+        /**
+         * Presizes the tables for the expected amount of entries
+         */
+        public Builder(int classes, int methods, int fields) {
+            tables.put(Domain.CLASS, new LinkedHashMap<>(capacity(classes)));
+            tables.put(Domain.METHOD, new LinkedHashMap<>(capacity(methods)));
+            tables.put(Domain.FIELD, new LinkedHashMap<>(capacity(fields)));
+            owners = new LinkedHashMap<>(capacity(classes));
+        }
+
+        public Builder put(Domain domain, String name, String mappedName) {
+            tables.get(domain).put(name, mappedName);
+            return this;
+        }
+
+        /**
+         * Adds a member to the owner's table, name and descriptor are expected in the same namespace as the owner
+         */
+        public Builder putMember(Domain domain, String owner, String name, String descriptor, String mappedName) {
+            Owner members = owners.computeIfAbsent(owner, key -> new Owner());
+            (domain == Domain.METHOD ? members.methods : members.fields).add(new Member(name, descriptor, mappedName));
+            return this;
+        }
+
+        public MappingImage build() {
+            Map<String, Integer> strings = new LinkedHashMap<>();
+            int poolSize = 0;
+            int methodCount = 0;
+            int fieldCount = 0;
+
+            // Value of ambiguous reverse entries
+            poolSize += intern(strings, "", poolSize);
+
+            for (Map<String, String> table : tables.values()) {
+                for (Map.Entry<String, String> entry : table.entrySet()) {
+                    poolSize += intern(strings, entry.getKey(), poolSize);
+                    poolSize += intern(strings, entry.getValue(), poolSize);
+                }
+            }
+
+            for (Map.Entry<String, Owner> entry : owners.entrySet()) {
+                poolSize += intern(strings, entry.getKey(), poolSize);
+
+                for (List<Member> members : Arrays.asList(entry.getValue().methods, entry.getValue().fields)) {
+                    members.sort(Comparator.comparingLong(Member::key));
+
+                    for (Member member : members) {
+                        poolSize += intern(strings, member.name, poolSize);
+                        poolSize += intern(strings, member.descriptor, poolSize);
+                        poolSize += intern(strings, member.mappedName, poolSize);
+                    }
+                }
+
+                methodCount += entry.getValue().methods.size();
+                fieldCount += entry.getValue().fields.size();
+            }
+
+            List<Map<String, String>> allTables = new ArrayList<>(tables.values());
+
+            for (Map<String, String> table : tables.values()) {
+                Map<String, String> reverse = new LinkedHashMap<>(capacity(table.size()));
+                // Multiple names can map to one, those are marked with an empty name
+                table.forEach((name, mappedName) -> reverse.merge(mappedName, name, (first, second) -> ""));
+                allTables.add(reverse);
+            }
+
+            int size = HEADER_SIZE;
+            int[] offsets = new int[TABLE_COUNT];
+
+            for (int i = 0; i < TABLE_COUNT; i++) {
+                int entries = allTables.get(i).size();
+                offsets[i] = size;
+                size += 4 + PerfectHash.bucketCount(entries) * 4 + entries * ENTRY_SIZE;
+            }
+
+            int membersOffset = size;
+            size += 4 + PerfectHash.bucketCount(owners.size()) * 4 + owners.size() * OWNER_SIZE + 4 + methodCount * MEMBER_SIZE + 4 + fieldCount * MEMBER_SIZE;
+
+            // Off-heap, so the GC never has to scan or copy the tables
+            ByteBuffer buffer = ByteBuffer.allocateDirect(size + poolSize);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(size);
+
+            for (int offset : offsets) {
+                buffer.putInt(offset);
+            }
+
+            buffer.putInt(membersOffset);
+            buffer.putInt(size + poolSize);
+
+            for (int t = 0; t < TABLE_COUNT; t++) {
+                Map<String, String> table = allTables.get(t);
+                List<String> keys = new ArrayList<>(table.keySet());
+                int[] slots = new int[keys.size()];
+                int displacements = writeIndex(buffer, offsets[t], keys, slots);
+                int entries = displacements + PerfectHash.bucketCount(keys.size()) * 4;
+
+                for (int i = 0; i < keys.size(); i++) {
+                    String key = keys.get(i);
+                    int entry = entries + slots[i] * ENTRY_SIZE;
+
+                    buffer.putInt(entry, key.hashCode());
+                    buffer.putInt(entry + 4, strings.get(key));
+                    buffer.putInt(entry + 8, strings.get(table.get(key)));
+                }
+            }
+
+            List<String> ownerNames = new ArrayList<>(owners.keySet());
+            int[] slots = new int[ownerNames.size()];
+            int ownerEntries = writeIndex(buffer, membersOffset, ownerNames, slots) + PerfectHash.bucketCount(ownerNames.size()) * 4;
+            int methods = ownerEntries + owners.size() * OWNER_SIZE;
+            int fields = methods + 4 + methodCount * MEMBER_SIZE;
+            int methodIndex = 0;
+            int fieldIndex = 0;
+
+            buffer.putInt(methods, methodCount);
+            buffer.putInt(fields, fieldCount);
+
+            for (int i = 0; i < ownerNames.size(); i++) {
+                String ownerName = ownerNames.get(i);
+                Owner owner = owners.get(ownerName);
+                int entry = ownerEntries + slots[i] * OWNER_SIZE;
+
+                buffer.putInt(entry, ownerName.hashCode());
+                buffer.putInt(entry + 4, strings.get(ownerName));
+                buffer.putInt(entry + 8, methodIndex);
+                buffer.putInt(entry + 12, owner.methods.size());
+                buffer.putInt(entry + 16, fieldIndex);
+                buffer.putInt(entry + 20, owner.fields.size());
+
+                methodIndex = writeMembers(buffer, methods + 4, methodIndex, owner.methods, strings);
+                fieldIndex = writeMembers(buffer, fields + 4, fieldIndex, owner.fields, strings);
+            }
+
+            buffer.position(size);
+
+            for (String string : strings.keySet()) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                buffer.putShort((short) bytes.length).put(bytes);
+            }
+
+            buffer.clear();
+            return new MappingImage(buffer);
+        }
+
+        // Writes size and displacements, returns offset of the displacements
+        private static int writeIndex(ByteBuffer buffer, int offset, List<String> keys, int[] slots) {
+            int[] displacements = PerfectHash.build(keys, slots);
+            buffer.putInt(offset, keys.size());
+
+            for (int i = 0; i < displacements.length; i++) {
+                buffer.putInt(offset + 4 + i * 4, displacements[i]);
+            }
+
+            return offset + 4;
+        }
+
+        private static int writeMembers(ByteBuffer buffer, int table, int index, List<Member> members, Map<String, Integer> strings) {
+            for (Member member : members) {
+                int entry = table + index++ * MEMBER_SIZE;
+
+                buffer.putInt(entry, member.name.hashCode());
+                buffer.putInt(entry + 4, member.descriptor.hashCode());
+                buffer.putInt(entry + 8, strings.get(member.name));
+                buffer.putInt(entry + 12, strings.get(member.descriptor));
+                buffer.putInt(entry + 16, strings.get(member.mappedName));
+            }
+
+            return index;
+        }
+
+        private static int capacity(int expectedSize) {
+            return (int) (expectedSize / 0.75F) + 1;
+        }
+
+        private static int intern(Map<String, Integer> strings, String string, int offset) {
+            if (strings.putIfAbsent(string, offset) != null) {
+                return 0;
+            }
+
+            return 2 + string.getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        private static class Owner {
+            private final List<Member> methods = new ArrayList<>();
+            private final List<Member> fields = new ArrayList<>();
+        }
+
+        private static class Member {
+            private final String name;
+            private final String descriptor;
+            private final String mappedName;
+
+            private Member(String name, String descriptor, String mappedName) {
+                this.name = name;
+                this.descriptor = descriptor;
+                this.mappedName = mappedName;
+            }
+
+            private long key() {
+                return memberKey(name.hashCode(), descriptor.hashCode());
+            }
+        }
+    }
+}
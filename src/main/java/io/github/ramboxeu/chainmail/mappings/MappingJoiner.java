@@ -0,0 +1,261 @@
+package io.github.ramboxeu.chainmail.mappings;
+
+import cpw.mods.modlauncher.api.INameMappingService.Domain;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.MarkerManager;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Joins Tiny (obfuscated to intermediary) and TSRG (obfuscated to srg) mappings on their obfuscated names.
+ * <p>
+ * Tiny mappings are partitioned per obfuscated class. TSRG chunks are then joined in parallel, class block by class
+ * block, and each partition is dropped as soon as its block was joined, so only the final tables survive. The joiner
+ * itself is discarded once {@link #join} returns.
+ */
+class MappingJoiner {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final Marker MAPPINGS = MarkerManager.getMarker("MAPPINGS");
+
+    private final Map<String, String> classNames = new HashMap<>(8192);
+    private final Map<String, TinyClass> partitions = new ConcurrentHashMap<>(8192);
+    private final Map<String, String> descriptors = new ConcurrentHashMap<>();
+    private int methodCount;
+    private int fieldCount;
+
+    private MappingJoiner() {}
+
+    static MappingImage join(URL tiny, URL srg) {
+        return new MappingJoiner().run(tiny, srg);
+    }
+
+    private MappingImage run(URL tiny, URL srg) {
+        try {
+            LOGGER.debug("Loading Tiny mappings!");
+            MappingParser.parseTiny(tiny, TinyChunk::new).forEach(this::mergeTiny);
+        } catch (IOException e) {
+            LOGGER.error("Error reading Tiny mappings ", e);
+        }
+
+        // Sized from the Tiny side, which is an upper bound of what the join can produce
+        MappingImage.Builder builder = new MappingImage.Builder(classNames.size(), methodCount, fieldCount);
+
+        MappingCoverage coverage = new MappingCoverage();
+
+        try {
+            LOGGER.debug("Loading Srg mappings!");
+            MappingParser.parseSrg(srg, SrgChunk::new).forEach(chunk -> {
+                chunk.emit(builder);
+                coverage.merge(chunk.coverage);
+            });
+        } catch (IOException e) {
+            LOGGER.error("Error reading Srg mappings ", e);
+        }
+
+        if (coverage.isComplete()) {
+            LOGGER.debug(MAPPINGS, "{}", coverage.report());
+        } else {
+            LOGGER.warn(MAPPINGS, "{}", coverage.report());
+        }
+
+        if (!partitions.isEmpty()) {
+            LOGGER.debug(MAPPINGS, "{} Tiny classes weren't present in Srg mappings", partitions.size());
+        }
+
+        return builder.build();
+    }
+
+    private void mergeTiny(TinyChunk chunk) {
+        classNames.putAll(chunk.classNames);
+        methodCount += chunk.methodCount;
+        fieldCount += chunk.fieldCount;
+
+        chunk.partitions.forEach((owner, partition) -> partitions.merge(owner, partition, (existing, other) -> {
+            existing.methods.putAll(other.methods);
+            existing.fields.putAll(other.fields);
+            return existing;
+        }));
+    }
+
+    private static class TinyChunk implements MappingParser.TinyVisitor {
+        private final Map<String, String> classNames = new HashMap<>();
+        private final Map<String, TinyClass> partitions = new HashMap<>();
+        private int methodCount;
+        private int fieldCount;
+
+        @Override
+        public void visitClass(String obfuscatedName, String tinyName) {
+            classNames.put(obfuscatedName, tinyName);
+        }
+
+        @Override
+        public void visitMethod(String owner, String obfuscatedName, String descriptor, String tinyName) {
+            partition(owner).methods.put(new MemberKey(obfuscatedName, descriptor), new TinyMember(tinyName, descriptor));
+            methodCount++;
+        }
+
+        @Override
+        public void visitField(String owner, String obfuscatedName, String descriptor, String tinyName) {
+            partition(owner).fields.put(obfuscatedName, new TinyMember(tinyName, descriptor));
+            fieldCount++;
+        }
+
+        private TinyClass partition(String owner) {
+            return partitions.computeIfAbsent(owner, key -> new TinyClass());
+        }
+    }
+
+    // Joins its part of TSRG against the (by then read-only) Tiny state, results are emitted in file order afterwards
+    private class SrgChunk implements MappingParser.SrgVisitor {
+        private final List<Joined> joined = new ArrayList<>();
+        private final MappingCoverage coverage = new MappingCoverage();
+        private TinyClass currentPartition;
+
+        @Override
+        public void visitClass(String obfuscatedName, String srgName) {
+            String tinyName = classNames.get(obfuscatedName);
+
+            // Previous partition is done, it can be collected
+            currentPartition = partitions.remove(obfuscatedName);
+
+            if (tinyName != null) {
+                joined.add(new Joined(Domain.CLASS, null, tinyName, null, srgName));
+                coverage.joined(Domain.CLASS);
+            } else {
+                coverage.missed(Domain.CLASS, null, obfuscatedName, null);
+            }
+        }
+
+        @Override
+        public void visitMethod(String owner, String obfuscatedName, String descriptor, String srgName) {
+            if (isJavaMethod(obfuscatedName)) {
+                return;
+            }
+
+            String tinyOwner = classNames.get(owner);
+            TinyMember method = tinyOwner != null && currentPartition != null ? currentPartition.methods.get(new MemberKey(obfuscatedName, descriptor)) : null;
+
+            if (method != null) {
+                joined.add(new Joined(Domain.METHOD, tinyOwner, method.name, remapDescriptor(method.descriptor), srgName));
+                coverage.joined(Domain.METHOD);
+            } else {
+                coverage.missed(Domain.METHOD, owner, obfuscatedName, descriptor);
+            }
+        }
+
+        @Override
+        public void visitField(String owner, String obfuscatedName, String srgName) {
+            String tinyOwner = classNames.get(owner);
+            TinyMember field = tinyOwner != null && currentPartition != null ? currentPartition.fields.get(obfuscatedName) : null;
+
+            if (field != null) {
+                joined.add(new Joined(Domain.FIELD, tinyOwner, field.name, remapDescriptor(field.descriptor), srgName));
+                coverage.joined(Domain.FIELD);
+            } else {
+                coverage.missed(Domain.FIELD, owner, obfuscatedName, null);
+            }
+        }
+
+        private void emit(MappingImage.Builder builder) {
+            for (Joined entry : joined) {
+                builder.put(entry.domain, entry.name, entry.srgName);
+
+                if (entry.owner != null) {
+                    builder.putMember(entry.domain, entry.owner, entry.name, entry.descriptor, entry.srgName);
+                }
+            }
+        }
+    }
+
+    // Translates an obfuscated descriptor into intermediary, results are memoized as most descriptors repeat
+    private String remapDescriptor(String descriptor) {
+        return descriptors.computeIfAbsent(descriptor, desc -> {
+            StringBuilder builder = null;
+            int last = 0;
+
+            for (int i = desc.indexOf('L'); i >= 0; i = desc.indexOf('L', i)) {
+                int end = desc.indexOf(';', i);
+                String tinyName = classNames.get(desc.substring(i + 1, end));
+
+                if (tinyName != null) {
+                    if (builder == null) {
+                        builder = new StringBuilder(desc.length() + 32);
+                    }
+
+                    builder.append(desc, last, i + 1).append(tinyName);
+                    last = end;
+                }
+
+                i = end + 1;
+            }
+
+            return builder == null ? desc : builder.append(desc, last, desc.length()).toString();
+        });
+    }
+
+    private static boolean isJavaMethod(String name) {
+        return name.equals("equals") || name.equals("toString") || name.equals("hashCode");
+    }
+
+    private static class Joined {
+        private final Domain domain;
+        private final String owner;
+        private final String name;
+        private final String descriptor;
+        private final String srgName;
+
+        private Joined(Domain domain, String owner, String name, String descriptor, String srgName) {
+            this.domain = domain;
+            this.owner = owner;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.srgName = srgName;
+        }
+    }
+
+    private static class TinyClass {
+        private final Map<MemberKey, TinyMember> methods = new HashMap<>();
+        private final Map<String, TinyMember> fields = new HashMap<>();
+    }
+
+    private static class TinyMember {
+        private final String name;
+        private final String descriptor;
+
+        private TinyMember(String name, String descriptor) {
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+    }
+
+    private static class MemberKey {
+        private final String name;
+        private final String descriptor;
+
+        private MemberKey(String name, String descriptor) {
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof MemberKey)) return false;
+            MemberKey key = (MemberKey) o;
+            return name.equals(key.name) && descriptor.equals(key.descriptor);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * name.hashCode() + descriptor.hashCode();
+        }
+    }
+}
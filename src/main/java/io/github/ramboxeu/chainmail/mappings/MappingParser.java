@@ -0,0 +1,276 @@
+package io.github.ramboxeu.chainmail.mappings;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Parses Tiny (V1 and V2) and TSRG mapping files. Files are streamed and split into chunks starting at class
+ * boundaries, which are parsed independently on the common fork-join pool, each into its own visitor. Only a few
+ * chunks are in flight at a time, so the whole file is never held in memory. Visitors are returned in file order, so
+ * merging them gives the same result as a sequential parse.
+ */
+class MappingParser {
+    private static final int MIN_CHUNK_LINES = 4096;
+    private static final String ESCAPED_NAMES = "escaped-names";
+    private static final String OFFICIAL = "official";
+    private static final String INTERMEDIARY = "intermediary";
+
+    interface TinyVisitor {
+        void visitClass(String obfuscatedName, String tinyName);
+        void visitMethod(String owner, String obfuscatedName, String descriptor, String tinyName);
+        void visitField(String owner, String obfuscatedName, String descriptor, String tinyName);
+    }
+
+    interface SrgVisitor {
+        void visitClass(String obfuscatedName, String srgName);
+        void visitMethod(String owner, String obfuscatedName, String descriptor, String srgName);
+        void visitField(String owner, String obfuscatedName, String srgName);
+    }
+
+    static <T extends TinyVisitor> List<T> parseTiny(URL path, Supplier<T> visitors) throws IOException {
+        try (BufferedReader reader = openReader(path)) {
+            String headerLine = reader.readLine();
+
+            if (headerLine == null) {
+                throw new IOException("Empty Tiny mappings");
+            }
+
+            String[] header = headerLine.split("\t");
+
+            if (header[0].equals("v1")) {
+                int[] columns = namespaces(header, 1);
+                // V1 lines are self-contained, every line is a boundary
+                return parse(reader, line -> true, visitors, (chunk, visitor) -> parseTinyV1(chunk, visitor, columns));
+            } else if (header[0].equals("tiny") && header.length > 1 && header[1].equals("2")) {
+                int[] columns = namespaces(header, 3);
+                boolean escaped = readEscapedNames(reader);
+                return parse(reader, line -> line.startsWith("c\t"), visitors, (chunk, visitor) -> parseTinyV2(chunk, visitor, columns, escaped));
+            }
+
+            throw new IOException("Unsupported Tiny mappings version: " + header[0]);
+        }
+    }
+
+    static <T extends SrgVisitor> List<T> parseSrg(URL path, Supplier<T> visitors) throws IOException {
+        try (BufferedReader reader = openReader(path)) {
+            return parse(reader, line -> line.charAt(0) != '\t', visitors, MappingParser::parseSrg);
+        }
+    }
+
+    // V2 properties are indented lines right after the header, the reader is left at the first line after them
+    private static boolean readEscapedNames(BufferedReader reader) throws IOException {
+        boolean escaped = false;
+
+        while (true) {
+            reader.mark(8192);
+            String line = reader.readLine();
+
+            if (line == null || !line.startsWith("\t") || line.startsWith("\t\t")) {
+                reader.reset();
+                return escaped;
+            }
+
+            if (line.substring(1).split("\t")[0].equals(ESCAPED_NAMES)) {
+                escaped = true;
+            }
+        }
+    }
+
+    // Columns of official and intermediary names, relative to the first namespace
+    private static int[] namespaces(String[] header, int first) throws IOException {
+        List<String> namespaces = Arrays.asList(header).subList(first, header.length);
+        int official = namespaces.indexOf(OFFICIAL);
+        int intermediary = namespaces.indexOf(INTERMEDIARY);
+
+        // Owners and descriptors are always in the first namespace
+        if (official != 0 || intermediary < 0) {
+            throw new IOException("Tiny mappings have to map from official to intermediary, got " + namespaces);
+        }
+
+        return new int[] { official, intermediary };
+    }
+
+    private static void parseTinyV1(List<String> chunk, TinyVisitor visitor, int[] columns) {
+        for (String s : chunk) {
+            String[] line = s.split("\t");
+
+            if (line.length < 2) {
+                continue;
+            }
+
+            switch (line[0]) {
+                case "CLASS":
+                    visitor.visitClass(line[1 + columns[0]], line[1 + columns[1]]);
+                    break;
+                case "FIELD":
+                    visitor.visitField(line[1], line[3 + columns[0]], line[2], line[3 + columns[1]]);
+                    break;
+                case "METHOD":
+                    visitor.visitMethod(line[1], line[3 + columns[0]], line[2], line[3 + columns[1]]);
+                    break;
+            }
+        }
+    }
+
+    private static void parseTinyV2(List<String> chunk, TinyVisitor visitor, int[] columns, boolean escaped) {
+        String owner = null;
+
+        for (String s : chunk) {
+            // Parameters, local variables and comments are nested deeper, nothing here needs them
+            if (s.isEmpty() || s.startsWith("\t\t")) {
+                continue;
+            }
+
+            String[] line = s.split("\t", -1);
+
+            if (escaped) {
+                for (int i = 0; i < line.length; i++) {
+                    line[i] = unescape(line[i]);
+                }
+            }
+
+            if (line[0].equals("c")) {
+                owner = line[1 + columns[0]];
+
+                if (!line[1 + columns[1]].isEmpty()) {
+                    visitor.visitClass(owner, line[1 + columns[1]]);
+                }
+            } else if (owner != null && line.length > 3 + columns[1] && !line[3 + columns[1]].isEmpty()) {
+                switch (line[1]) {
+                    case "m":
+                        visitor.visitMethod(owner, line[3 + columns[0]], line[2], line[3 + columns[1]]);
+                        break;
+                    case "f":
+                        visitor.visitField(owner, line[3 + columns[0]], line[2], line[3 + columns[1]]);
+                        break;
+                }
+            }
+        }
+    }
+
+    private static void parseSrg(List<String> chunk, SrgVisitor visitor) {
+        String owner = null;
+
+        for (String s : chunk) {
+            if (s.isEmpty()) {
+                continue;
+            }
+
+            if (s.charAt(0) == '\t') {
+                String[] line = s.substring(1).split(" ");
+
+                if (line.length == 2) {
+                    visitor.visitField(owner, line[0], line[1]);
+                } else {
+                    visitor.visitMethod(owner, line[0], line[1], line[2]);
+                }
+            } else {
+                String[] line = s.split(" ");
+                owner = line[0];
+                visitor.visitClass(line[0], line[1]);
+            }
+        }
+    }
+
+    private static <T> List<T> parse(BufferedReader reader, Predicate<String> boundary, Supplier<T> visitors, ChunkParser<T> parser) throws IOException {
+        int maxPending = ForkJoinPool.getCommonPoolParallelism() * 2;
+        List<T> results = new ArrayList<>();
+        Deque<ForkJoinTask<T>> pending = new ArrayDeque<>();
+        List<String> chunk = new ArrayList<>(MIN_CHUNK_LINES);
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            // Chunks end right before a class, so no class is split between chunks
+            if (chunk.size() >= MIN_CHUNK_LINES && !line.isEmpty() && boundary.test(line)) {
+                submit(chunk, visitors, parser, pending);
+                chunk = new ArrayList<>(MIN_CHUNK_LINES);
+
+                // Reading waits for the oldest chunk once enough are queued, that keeps memory use flat
+                if (pending.size() > maxPending) {
+                    results.add(pending.removeFirst().join());
+                }
+            }
+
+            chunk.add(line);
+        }
+
+        submit(chunk, visitors, parser, pending);
+
+        while (!pending.isEmpty()) {
+            results.add(pending.removeFirst().join());
+        }
+
+        return results;
+    }
+
+    private static <T> void submit(List<String> chunk, Supplier<T> visitors, ChunkParser<T> parser, Deque<ForkJoinTask<T>> pending) {
+        pending.addLast(ForkJoinPool.commonPool().submit(() -> {
+            T visitor = visitors.get();
+            parser.parse(chunk, visitor);
+            return visitor;
+        }));
+    }
+
+    /**
+     * Undoes Tiny V2 escapes of names, {@code \\}, {@code \n}, {@code \r}, {@code \0} and {@code \t}
+     */
+    static String unescape(String name) {
+        int index = name.indexOf('\\');
+
+        if (index < 0) {
+            return name;
+        }
+
+        StringBuilder builder = new StringBuilder(name.length());
+        builder.append(name, 0, index);
+
+        for (int i = index; i < name.length(); i++) {
+            char c = name.charAt(i);
+
+            if (c == '\\' && i + 1 < name.length()) {
+                switch (name.charAt(++i)) {
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    case '0':
+                        c = '\0';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    default:
+                        c = name.charAt(i);
+                        break;
+                }
+            }
+
+            builder.append(c);
+        }
+
+        return builder.toString();
+    }
+
+    private static BufferedReader openReader(URL path) throws IOException {
+        return new BufferedReader(new InputStreamReader(path.openStream(), StandardCharsets.UTF_8));
+    }
+
+    @FunctionalInterface
+    private interface ChunkParser<T> {
+        void parse(List<String> chunk, T visitor);
+    }
+}
@@ -0,0 +1,90 @@
+package io.github.ramboxeu.chainmail.mappings;
+
+import cpw.mods.modlauncher.api.INameMappingService.Domain;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Translates names between intermediary and the names used at runtime (srg in production, mcp in development), for
+ * Fabric mods that look things up reflectively. Both directions are served by the same {@link MappingImage} the
+ * remapper uses.
+ * <p>
+ * Class names can be given in either binary ({@code net.minecraft.class_1234}) or internal
+ * ({@code net/minecraft/class_1234}) form and are returned in the same form. Names without a mapping are returned as
+ * they are.
+ * <p>
+ * Runtime names aren't always unique, in development many intermediary names share one mcp name. Those can't be
+ * translated back, {@link #toIntermediaryName} returns null for them.
+ */
+public final class NameTranslator {
+    private static final int CACHE_LIMIT = 8192;
+    private static final Domain[] DOMAINS = Domain.values();
+
+    // Compared by identity, so it never clashes with a translated name
+    private static final String AMBIGUOUS = new String();
+
+    // Translated names of hot call sites, to runtime for each domain first, then to intermediary
+    private static final Map<String, String>[] CACHES = createCaches();
+
+    private NameTranslator() {}
+
+    /**
+     * @return runtime name of an intermediary name
+     */
+    public static String toRuntimeName(Domain domain, String intermediaryName) {
+        return translate(domain, intermediaryName, false);
+    }
+
+    /**
+     * @return intermediary name of a runtime name, or null if several intermediary names map to it
+     */
+    public static String toIntermediaryName(Domain domain, String runtimeName) {
+        return translate(domain, runtimeName, true);
+    }
+
+    private static String translate(Domain domain, String name, boolean reverse) {
+        Map<String, String> cache = CACHES[(reverse ? DOMAINS.length : 0) + domain.ordinal()];
+        String translated = cache.get(name);
+
+        if (translated != null) {
+            return translated != AMBIGUOUS ? translated : null;
+        }
+
+        TinyNamingService service = TinyNamingService.getInstance();
+
+        if (service == null) {
+            return name;
+        }
+
+        MappingImage mappings = service.getLookupMappings();
+        boolean binaryName = domain == Domain.CLASS && name.indexOf('.') >= 0;
+        String key = binaryName ? name.replace('.', '/') : name;
+
+        translated = reverse ? mappings.getReverse(domain, key) : mappings.get(domain, key);
+
+        if (translated == null) {
+            translated = reverse && mappings.isReverseAmbiguous(domain, key) ? AMBIGUOUS : name;
+        } else if (binaryName) {
+            translated = translated.replace('/', '.');
+        }
+
+        // Srg names stand in for mcp ones until srg to mcp is available, those mustn't stick
+        if (cache.size() < CACHE_LIMIT && !service.isFallbackMappings(mappings)) {
+            cache.put(name, translated);
+        }
+
+        return translated != AMBIGUOUS ? translated : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, String>[] createCaches() {
+        Map<String, String>[] caches = (Map<String, String>[]) new Map<?, ?>[DOMAINS.length * 2];
+
+        for (int i = 0; i < caches.length; i++) {
+            caches[i] = new ConcurrentHashMap<>();
+        }
+
+        return caches;
+    }
+}
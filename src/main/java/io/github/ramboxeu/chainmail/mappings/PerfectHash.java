@@ -0,0 +1,142 @@
+package io.github.ramboxeu.chainmail.mappings;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Minimal perfect hash (hash and displace) over a fixed set of strings. Keys are split into buckets of about
+ * {@link #BUCKET_SIZE} by their {@link String#hashCode()}. Each bucket stores a displacement: either a seed for
+ * {@link #hash(String, int)} under which its keys land on free slots, or for single key buckets the slot itself.
+ * <p>
+ * Slots are exactly as many as keys and a lookup is two hash computations and one displacement read, with no probing.
+ * Keys that weren't part of the set land on an arbitrary slot, so callers have to verify the key stored there.
+ */
+final class PerfectHash {
+    private static final int BUCKET_SIZE = 4;
+    private static final int MAX_SEED = 1 << 24;
+
+    private PerfectHash() {}
+
+    static int bucketCount(int size) {
+        return Math.max(1, (size + BUCKET_SIZE - 1) / BUCKET_SIZE);
+    }
+
+    /**
+     * @param displacements offset of {@link #bucketCount(int)} displacement ints in the buffer
+     * @return slot of the key, if the key is part of the set
+     */
+    static int slot(ByteBuffer buffer, int displacements, int size, String key) {
+        int displacement = buffer.getInt(displacements + bucket(key, bucketCount(size)) * 4);
+        return displacement < 0 ? -displacement - 1 : hash(key, displacement) % size;
+    }
+
+    /**
+     * @param slots receives the slot of each key
+     * @return displacement of each bucket
+     */
+    static int[] build(List<String> keys, int[] slots) {
+        int size = keys.size();
+        int bucketCount = bucketCount(size);
+        int[] displacements = new int[bucketCount];
+        List<List<Integer>> buckets = new ArrayList<>(bucketCount);
+
+        for (int i = 0; i < bucketCount; i++) {
+            buckets.add(new ArrayList<>(BUCKET_SIZE));
+        }
+
+        for (int i = 0; i < size; i++) {
+            buckets.get(bucket(keys.get(i), bucketCount)).add(i);
+        }
+
+        // Biggest buckets first, while there is the most space left
+        List<Integer> order = new ArrayList<>(bucketCount);
+
+        for (int i = 0; i < bucketCount; i++) {
+            order.add(i);
+        }
+
+        order.sort((a, b) -> buckets.get(b).size() - buckets.get(a).size());
+
+        BitSet taken = new BitSet(size);
+        int[] candidates = new int[BUCKET_SIZE * 4];
+        int nextFree = 0;
+
+        for (int bucketIndex : order) {
+            List<Integer> bucket = buckets.get(bucketIndex);
+
+            if (bucket.isEmpty()) {
+                break;
+            }
+
+            if (bucket.size() == 1) {
+                nextFree = taken.nextClearBit(nextFree);
+                taken.set(nextFree);
+                slots[bucket.get(0)] = nextFree;
+                displacements[bucketIndex] = -nextFree - 1;
+                continue;
+            }
+
+            if (candidates.length < bucket.size()) {
+                candidates = new int[bucket.size()];
+            }
+
+            displacements[bucketIndex] = findSeed(keys, bucket, taken, candidates, size);
+
+            for (int i = 0; i < bucket.size(); i++) {
+                taken.set(candidates[i]);
+                slots[bucket.get(i)] = candidates[i];
+            }
+        }
+
+        return displacements;
+    }
+
+    private static int findSeed(List<String> keys, List<Integer> bucket, BitSet taken, int[] candidates, int size) {
+        search:
+        for (int seed = 0; seed < MAX_SEED; seed++) {
+            for (int i = 0; i < bucket.size(); i++) {
+                int slot = hash(keys.get(bucket.get(i)), seed) % size;
+
+                if (taken.get(slot)) {
+                    continue search;
+                }
+
+                for (int j = 0; j < i; j++) {
+                    if (candidates[j] == slot) {
+                        continue search;
+                    }
+                }
+
+                candidates[i] = slot;
+            }
+
+            return seed;
+        }
+
+        throw new IllegalStateException("Couldn't find a perfect hash for " + bucket.size() + " keys");
+    }
+
+    private static int bucket(String key, int bucketCount) {
+        int hash = key.hashCode() * 0x9E3779B9;
+        return ((hash ^ (hash >>> 16)) & 0x7FFFFFFF) % bucketCount;
+    }
+
+    // Seeded FNV-1a with a murmur finalizer, independent of String.hashCode so its collisions don't matter
+    static int hash(String key, int seed) {
+        int hash = 0x811C9DC5 ^ (seed * 0x9E3779B9);
+
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x01000193;
+        }
+
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        hash ^= hash >>> 16;
+
+        return hash & 0x7FFFFFFF;
+    }
+}
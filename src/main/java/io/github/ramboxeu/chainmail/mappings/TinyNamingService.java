@@ -2,6 +2,7 @@ package io.github.ramboxeu.chainmail.mappings;
 
 import cpw.mods.modlauncher.Launcher;
 import cpw.mods.modlauncher.api.INameMappingService;
+import io.github.ramboxeu.chainmail.utils.CacheUtils;
 import net.minecraftforge.fml.loading.FMLLoader;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.logging.log4j.LogManager;
@@ -9,150 +10,118 @@ import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.Marker;
 import org.apache.logging.log4j.MarkerManager;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.URL;
-import java.util.HashMap;
+import java.security.MessageDigest;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BiFunction;
 
 public class TinyNamingService implements INameMappingService {
     private static final Logger LOGGER = LogManager.getLogger();
     private static final Marker DUMP = MarkerManager.getMarker("MAPPINGSDUMP");
-    private static final Marker MAPPINGS = MarkerManager.getMarker("MAPPINGS");
 
-    private String lastSrgClass;
+    private final CompletableFuture<MappingImage> mappings;
+    private final boolean production;
 
-    private final HashMap<String, String> tempTinyMap = new HashMap<>(1000);
-    private final HashMap<String, String> classes = new HashMap<>(1000);
-    private final HashMap<String, String> methods = new HashMap<>(1000);
-    private final HashMap<String, String> fields = new HashMap<>(1000);
+    private volatile MappingImage composedMappings;
+    private volatile BiFunction<Domain, String, String> srgToMcp;
+    private volatile String mappingsHash;
+    private boolean warnedComposition;
+
+    private static volatile TinyNamingService instance;
 
     public TinyNamingService() {
+        this(false);
+    }
+
+    /**
+     * @param production look names up as in production (srg) without asking FML, for use outside of the game
+     */
+    public TinyNamingService(boolean production) {
         LOGGER.info("Constructed naming service");
+        this.production = production;
 
         URL tinyPath = getClass().getClassLoader().getResource("1.16.3.tiny");
         URL srgPath = getClass().getClassLoader().getResource("1.16.3.tsrg");
 
-        if (tinyPath != null) {
-            loadTiny(tinyPath, new TinyMappingAcceptor() {
-                @Override
-                protected void acceptClass(String obfuscatedName, String tinyName) {
-                    tempTinyMap.put(obfuscatedName, tinyName);
-                }
-
-                @Override
-                protected void acceptMethod(String obfuscatedName, String tinyName, String owner, String descriptor) {
-                    tempTinyMap.put(fullMethodName(owner, obfuscatedName, descriptor), tinyName);
-                }
-
-                @Override
-                protected void acceptField(String obfuscatedName, String tinyName, String owner, String descriptor) {
-                    tempTinyMap.put(fullFieldName(owner, obfuscatedName), tinyName);
-                }
-            });
-        } else {
-            LOGGER.error("Tiny mapping file not found!");
-        }
+        // Loading overlaps with the rest of the launch, only the first lookup waits for it
+        mappings = CompletableFuture.supplyAsync(() -> loadMappings(tinyPath, srgPath), TinyNamingService::runLoader)
+                .exceptionally(e -> {
+                    LOGGER.error("Error loading mappings ", e);
+                    return new MappingImage.Builder().build();
+                });
 
-        if (srgPath != null) {
-            loadSrg(srgPath, new SrgMappingAcceptor() {
+        instance = this;
+    }
 
-                @Override
-                protected void acceptClass(String obfuscatedName, String srgName) {
-                    if (tempTinyMap.containsKey(obfuscatedName)) {
-                        classes.put(tempTinyMap.get(obfuscatedName), srgName);
-                    } else {
-                        LOGGER.warn(MAPPINGS, "{} wasn't found in the Tiny map", obfuscatedName);
-                    }
-                }
+    private static void runLoader(Runnable task) {
+        Thread thread = new Thread(task, "Chainmail Mappings Loader");
+        thread.setDaemon(true);
+        thread.start();
+    }
 
-                @Override
-                protected void acceptMethod(String obfuscatedName, String srgName, String owner, String descriptor) {
-                    String name = fullMethodName(owner, obfuscatedName, descriptor);
+    private MappingImage loadMappings(URL tinyPath, URL srgPath) {
+        MappingImage image;
 
-                    if (tempTinyMap.containsKey(name)) {
-                        methods.put(tempTinyMap.get(name), srgName);
-                    } else {
-                        LOGGER.warn(MAPPINGS, "{} wasn't found in the Tiny map", name);
-                    }
-                }
+        if (tinyPath != null && srgPath != null) {
+            image = MappingCache.load(tinyPath, srgPath, () -> MappingJoiner.join(tinyPath, srgPath));
+        } else {
+            if (tinyPath == null) {
+                LOGGER.error("Tiny mapping file not found!");
+            }
 
-                @Override
-                protected void acceptField(String obfuscatedName, String srgName, String owner) {
-                    String name = fullFieldName(owner, obfuscatedName);
+            if (srgPath == null) {
+                LOGGER.error("Srg mapping file not found!");
+            }
 
-                    if (tempTinyMap.containsKey(name)) {
-                        fields.put(tempTinyMap.get(name), srgName);
-                    } else {
-                        LOGGER.warn(MAPPINGS, "{} wasn't found in the Tiny map", name);
-                    }
-                }
-            });
-        } else {
-            LOGGER.error("Srg mapping file not found!");
+            image = new MappingImage.Builder().build();
         }
 
-        dumpMappings();
+        dumpMappings(image);
+        return image;
     }
 
-    private void loadTiny(URL path, TinyMappingAcceptor acceptor) {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(path.openStream()))) {
-            // Works only for Tiny V1
-            LOGGER.debug("Loading Tiny mappings!");
-            reader.lines().skip(1)
-                    .map(line -> line.split("\t"))
-                    .filter(line -> line.length >= 2)
-                    .forEach(line -> processTinyLine(line, acceptor));
-        } catch (IOException e) {
-            LOGGER.error("Error reading Tiny mappings ", e);
-        }
+    /**
+     * @return loaded mappings, blocks if they are still being loaded
+     */
+    public MappingImage getMappings() {
+        return mappings.join();
     }
 
-    private void processTinyLine(String[] line, TinyMappingAcceptor acceptor) {
-        String type = line[0];
-
-        switch (type) {
-            case "CLASS":
-                acceptor.acceptClass(line[1], line[2]);
-                break;
-            case "FIELD":
-                acceptor.acceptField(line[3], line[4], line[1], line[2]);
-                break;
-            case "METHOD":
-                acceptor.acceptMethod(line[3], line[4], line[1], line[2]);
-                break;
-        }
+    /**
+     * @return the service constructed by modlauncher, or null if it wasn't constructed yet
+     */
+    public static TinyNamingService getInstance() {
+        return instance;
     }
 
-    private void loadSrg(URL path, SrgMappingAcceptor acceptor) {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(path.openStream()))) {
-            reader.lines().forEach(line -> processSrgLine(line, acceptor));
-        } catch (IOException e) {
-            LOGGER.error("Error reading Srg mappings ", e);
+    /**
+     * @return hash of the mappings used for lookups, identifies anything remapped with them
+     */
+    public String getMappingsHash() {
+        String hash = mappingsHash;
+
+        if (hash == null) {
+            MappingImage lookupMappings = getLookupMappings();
+            MessageDigest digest = CacheUtils.newDigest();
+            digest.update(lookupMappings.getBuffer());
+            hash = CacheUtils.toHex(digest.digest());
+
+            // The fallback is replaced once srg to mcp is available, so is its hash
+            if (!isFallbackMappings(lookupMappings)) {
+                mappingsHash = hash;
+            }
         }
-    }
 
-    private void processSrgLine(String s, SrgMappingAcceptor acceptor) {
-        if (s.charAt(0) == '\t') {
-            String[] line = s.replace("\t", "").split(" ");
-
-            if (line.length == 2) {
-                acceptor.acceptField(line[0], line[1], lastSrgClass);
-            } else {
-                String obfuscatedName = line[0];
+        return hash;
+    }
 
-                if (!isJavaMethod(obfuscatedName)) {
-                    acceptor.acceptMethod(obfuscatedName, line[2], lastSrgClass, line[1]);
-                }
-            }
-        } else {
-            String[] line = s.split(" ");
-            acceptor.acceptClass(line[0], line[1]);
-            lastSrgClass = line[0];
-        }
+    /**
+     * @return whether srg names stand in for mcp ones, nothing remapped with them should be kept
+     */
+    public boolean isUsingFallbackMappings() {
+        return isFallbackMappings(getLookupMappings());
     }
 
     @Override
@@ -190,56 +159,140 @@ public class TinyNamingService implements INameMappingService {
         return source;
     }
 
-    private String mapClass(String source) {
-        String name = classes.getOrDefault(source, source);
-        return FMLLoader.isProduction() ? name : map(Domain.CLASS, name);
+    /**
+     * @return mapped class name, or the name itself if it isn't mapped
+     */
+    public String mapClass(String source) {
+        return getOrDefault(Domain.CLASS, source);
     }
 
-    private String mapField(String source) {
-        String name = fields.getOrDefault(source, source);
-        return FMLLoader.isProduction() ? name : map(Domain.FIELD, name);
+    /**
+     * @return mapped field name ignoring its owner, or the name itself if it isn't mapped
+     */
+    public String mapField(String source) {
+        return getOrDefault(Domain.FIELD, source);
     }
 
-    private String mapMethod(String source) {
-        String name = methods.getOrDefault(source, source);
-        return FMLLoader.isProduction() ? name : map(Domain.METHOD, name);
+    /**
+     * @return mapped method name ignoring its owner, or the name itself if it isn't mapped
+     */
+    public String mapMethod(String source) {
+        return getOrDefault(Domain.METHOD, source);
     }
 
-    private String map(Domain domain, String name) {
-        return Optional.ofNullable(Launcher.INSTANCE)
-                .map(Launcher::environment)
-                .flatMap(env -> env.findNameMapping("srg"))
-                .map(mapper -> mapper.apply(domain, name))
-                .orElse(name);
+    public boolean isMapped(Domain domain, String name) {
+        return getLookupMappings().get(domain, name) != null;
     }
 
-    private void dumpMappings() {
-        classes.forEach((key, value) -> LOGGER.debug(DUMP, "Mapping : Class : {} -> {}", key, value));
-        methods.forEach((key, value) -> LOGGER.debug(DUMP, "Mapping : Method : {} -> {}", key, value));
-        fields.forEach((key, value) -> LOGGER.debug(DUMP, "Mapping : Field : {} -> {}", key, value));
+    /**
+     * Maps a field declared in the owner, falls back to the bare name mapping if the owner doesn't declare it
+     */
+    public String mapField(String owner, String name, String descriptor) {
+        String mappedName = getLookupMappings().getMember(Domain.FIELD, owner, name, descriptor);
+        return mappedName != null ? mappedName : mapField(name);
     }
 
-    private static boolean isJavaMethod(String name) {
-        return name.equals("equals") || name.equals("toString") || name.equals("hashCode");
+    /**
+     * Maps a method declared in the owner, falls back to the bare name mapping if the owner doesn't declare it
+     */
+    public String mapMethod(String owner, String name, String descriptor) {
+        String mappedName = getLookupMappings().getMember(Domain.METHOD, owner, name, descriptor);
+        return mappedName != null ? mappedName : mapMethod(name);
     }
 
-    private static String fullMethodName(String owner, String name, String descriptor) {
-        return owner + "." + name + descriptor;
+    private String getOrDefault(Domain domain, String name) {
+        String mappedName = getLookupMappings().get(domain, name);
+        return mappedName != null ? mappedName : mapMissing(domain, name);
     }
 
-    private static String fullFieldName(String owner, String name) {
-        return owner + "." + name;
+    // Outside production, srg names used directly still go through srg to mcp, other names missing from the tables are
+    // JDK, mod or already mapped names that srg to mcp would only look up in vain
+    private String mapMissing(Domain domain, String name) {
+        BiFunction<Domain, String, String> mapper = srgToMcp;
+
+        if (mapper == null || production || FMLLoader.isProduction() || !isSrgName(domain, name)) {
+            return name;
+        }
+
+        return mapper.apply(domain, name);
+    }
+
+    // Srg doesn't rename classes, only methods and fields
+    private static boolean isSrgName(Domain domain, String name) {
+        switch (domain) {
+            case METHOD:
+                return name.startsWith("func_");
+            case FIELD:
+                return name.startsWith("field_");
+            default:
+                return false;
+        }
     }
 
-    private static abstract class TinyMappingAcceptor {
-        protected abstract void acceptClass(String obfuscatedName, String tinyName);
-        protected abstract void acceptMethod(String obfuscatedName, String tinyName, String owner, String descriptor);
-        protected abstract void acceptField(String obfuscatedName, String tinyName, String owner, String descriptor);
+    // Tiny to srg in production, tiny to mcp otherwise
+    MappingImage getLookupMappings() {
+        if (production || FMLLoader.isProduction()) {
+            return getMappings();
+        }
+
+        MappingImage composed = composedMappings;
+
+        if (composed == null) {
+            synchronized (this) {
+                composed = composedMappings;
+
+                if (composed == null) {
+                    composed = composeMappings(getMappings());
+                }
+            }
+        }
+
+        return composed;
     }
 
-    private static abstract class SrgMappingAcceptor {
-        protected abstract void acceptClass(String obfuscatedName, String srgName);
-        protected abstract void acceptMethod(String obfuscatedName, String srgName, String owner, String descriptor);
-        protected abstract void acceptField(String obfuscatedName, String srgName, String owner);
+    /**
+     * @return whether the mappings are srg ones standing in for mcp ones, which aren't composed yet
+     */
+    boolean isFallbackMappings(MappingImage mappings) {
+        return !production && !FMLLoader.isProduction() && mappings != composedMappings;
+    }
+
+    // Runs every srg name through srg to mcp once, instead of on every lookup
+    private MappingImage composeMappings(MappingImage mappings) {
+        Optional<BiFunction<Domain, String, String>> srgMapper = Optional.ofNullable(Launcher.INSTANCE)
+                .map(Launcher::environment)
+                .flatMap(env -> env.findNameMapping("srg"));
+
+        if (!srgMapper.isPresent()) {
+            if (!warnedComposition) {
+                LOGGER.warn("Srg to mcp mapping isn't available yet, falling back to srg names");
+                warnedComposition = true;
+            }
+
+            return mappings;
+        }
+
+        BiFunction<Domain, String, String> mapper = srgMapper.get();
+        srgToMcp = mapper;
+        MappingImage.Builder builder = new MappingImage.Builder(mappings.size(Domain.CLASS), mappings.size(Domain.METHOD), mappings.size(Domain.FIELD));
+
+        for (Domain domain : Domain.values()) {
+            mappings.forEach(domain, (name, srgName) -> builder.put(domain, name, mapper.apply(domain, srgName)));
+            mappings.forEachMember(domain, (owner, name, descriptor, srgName) -> builder.putMember(domain, owner, name, descriptor, mapper.apply(domain, srgName)));
+        }
+
+        LOGGER.debug("Composed tiny to mcp mappings");
+        composedMappings = builder.build();
+        return composedMappings;
+    }
+
+    private static void dumpMappings(MappingImage mappings) {
+        if (!LOGGER.isDebugEnabled(DUMP)) {
+            return;
+        }
+
+        mappings.forEach(Domain.CLASS, (key, value) -> LOGGER.debug(DUMP, "Mapping : Class : {} -> {}", key, value));
+        mappings.forEach(Domain.METHOD, (key, value) -> LOGGER.debug(DUMP, "Mapping : Method : {} -> {}", key, value));
+        mappings.forEach(Domain.FIELD, (key, value) -> LOGGER.debug(DUMP, "Mapping : Field : {} -> {}", key, value));
     }
 }
@@ -10,8 +10,10 @@ import org.apache.maven.artifact.versioning.ArtifactVersion;
 import org.apache.maven.artifact.versioning.VersionRange;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -143,8 +145,32 @@ public class FabricModJson {
      * @throws IOException if an I/O exception occurs while reading file
      */
     public static FabricModJson parseJson(Path modJson) throws IOException {
-        JsonElement rootElem = new JsonParser().parse(new JsonReader(Files.newBufferedReader(modJson)));
+        return parseJson(readJson(modJson), modJson.toString());
+    }
 
+    /**
+     * Reads fabric.mod.json without interpreting it, for {@link #parseJson(JsonElement, String)} and
+     * {@link #parseNestedJars(JsonElement)} to share
+     *
+     * @param modJson path to the fabric.mod.json
+     * @return root element of the file
+     * @throws IOException if an I/O exception occurs while reading file
+     */
+    public static JsonElement readJson(Path modJson) throws IOException {
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(modJson))) {
+            return new JsonParser().parse(reader);
+        }
+    }
+
+    /**
+     * Parses fabric.mod.json that was already read. Automatically determines schema version and chooses appropriate
+     * parser.
+     *
+     * @param rootElem root element of the fabric.mod.json
+     * @param modJson location of the fabric.mod.json, for errors
+     * @return object containing parsed metadata
+     */
+    public static FabricModJson parseJson(JsonElement rootElem, String modJson) {
         if (!rootElem.isJsonObject()) {
             LOGGER.error("Mod json: {} is invalid, it is not a object", modJson);
             return null;
@@ -170,7 +196,7 @@ public class FabricModJson {
                 LOGGER.info("Schema version 0 is not supported yet");
                 break;
             case 1:
-                return FabricModJsonV1Parser.parseJson(root, modJson.toString());
+                return FabricModJsonV1Parser.parseJson(root, modJson);
             default:
                 LOGGER.error("Mod json: {} is invalid, {} is not valid schema version", modJson, schemaVersion);
                 break;
@@ -178,4 +204,27 @@ public class FabricModJson {
 
         return null;
     }
+
+    /**
+     * Reads only the nested jars of a fabric.mod.json, without parsing and validating the rest of it
+     *
+     * @param reader reader of the fabric.mod.json
+     * @return paths of the nested jars
+     */
+    public static List<String> parseNestedJars(Reader reader) {
+        return parseNestedJars(new JsonParser().parse(new JsonReader(reader)));
+    }
+
+    /**
+     * @param rootElem root element of the fabric.mod.json
+     * @return paths of the nested jars
+     * @see #parseNestedJars(Reader)
+     */
+    public static List<String> parseNestedJars(JsonElement rootElem) {
+        if (!rootElem.isJsonObject()) {
+            return Collections.emptyList();
+        }
+
+        return FabricModJsonV1Parser.getNestedJars(rootElem.getAsJsonObject());
+    }
 }
@@ -49,7 +49,7 @@ public class FabricModJsonV1Parser {
         return new FabricModJson(modId, license, name, "", version, entrypoints, dependencies, nestedJars);
     }
 
-    private static List<String> getNestedJars(JsonObject root) {
+    static List<String> getNestedJars(JsonObject root) {
         if (root.has("jars")) {
             JsonElement jarsElem = root.get("jars");
 
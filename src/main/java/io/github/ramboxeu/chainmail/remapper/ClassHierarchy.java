@@ -0,0 +1,205 @@
+package io.github.ramboxeu.chainmail.remapper;
+
+import cpw.mods.modlauncher.api.INameMappingService.Domain;
+import io.github.ramboxeu.chainmail.mappings.MappingImage;
+import io.github.ramboxeu.chainmail.mappings.NameTranslator;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.objectweb.asm.ClassReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves member references to the class that declares the member in the mappings, so references through mod
+ * subclasses of vanilla types are remapped like references to the vanilla type itself.
+ * <p>
+ * Super types are read lazily from class file headers, vanilla classes through their runtime names, and are kept in
+ * intermediary names. Both the super types and the resolved owners are memoized, except for owners whose lookup went
+ * through a class that couldn't be read. Whether that happened is tracked for each thread, so one hierarchy can be
+ * shared by jars remapped concurrently, see {@link #resetComplete()}.
+ */
+public class ClassHierarchy {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final String[] NO_SUPERS = new String[0];
+    private static final String[] MISSING = new String[0];
+    private static final String UNRESOLVED = "";
+
+    private final MappingImage mappings;
+    private final ClassLoader classLoader;
+    private final Map<String, String[]> supers = new ConcurrentHashMap<>();
+    private final Map<MemberRef, String> owners = new ConcurrentHashMap<>();
+    // Set when a lookup on this thread went through a class that couldn't be read
+    private final ThreadLocal<Boolean> missed = ThreadLocal.withInitial(() -> false);
+
+    public ClassHierarchy(MappingImage mappings, ClassLoader classLoader) {
+        this.mappings = mappings;
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * @return intermediary name of the class declaring the method, or null if it isn't a mapped method
+     */
+    public String resolveMethod(String owner, String name, String descriptor) {
+        return resolve(Domain.METHOD, owner, name, descriptor);
+    }
+
+    /**
+     * @return intermediary name of the class declaring the field, or null if it isn't a mapped field
+     */
+    public String resolveField(String owner, String name, String descriptor) {
+        return resolve(Domain.FIELD, owner, name, descriptor);
+    }
+
+    /**
+     * Starts over tracking whether lookups on the calling thread are complete
+     */
+    public void resetComplete() {
+        missed.set(false);
+    }
+
+    /**
+     * @return false if some class couldn't be read in a lookup on the calling thread since {@link #resetComplete()}, so
+     * members inherited through it may have been left unresolved
+     */
+    public boolean isComplete() {
+        return !missed.get();
+    }
+
+    private String resolve(Domain domain, String owner, String name, String descriptor) {
+        // Names that aren't mapped anywhere can't resolve to anything, which is most of what mods reference
+        if (mappings.get(domain, name) == null) {
+            return null;
+        }
+
+        String resolved = find(domain, owner, name, descriptor);
+        return resolved == UNRESOLVED ? null : resolved;
+    }
+
+    // Not computeIfAbsent, the lookup recurses into the same map
+    private String find(Domain domain, String owner, String name, String descriptor) {
+        MemberRef key = new MemberRef(domain, owner, name, descriptor);
+        String resolved = owners.get(key);
+
+        if (resolved != null) {
+            return resolved;
+        }
+
+        boolean missedBefore = missed.get();
+        missed.set(false);
+
+        if (mappings.getMember(domain, owner, name, descriptor) != null) {
+            resolved = owner;
+        } else {
+            resolved = UNRESOLVED;
+            String[] supers = getSupers(owner);
+
+            if (supers == MISSING) {
+                missed.set(true);
+            }
+
+            for (String superName : supers) {
+                resolved = find(domain, superName, name, descriptor);
+
+                if (resolved != UNRESOLVED) {
+                    break;
+                }
+            }
+        }
+
+        // Lookups through classes that couldn't be read are repeated, so every thread that needs them sees the miss
+        if (missed.get()) {
+            missedBefore = true;
+        } else {
+            owners.put(key, resolved);
+        }
+
+        missed.set(missedBefore);
+        return resolved;
+    }
+
+    /**
+     * @return super class followed by interfaces, in intermediary names
+     */
+    private String[] getSupers(String name) {
+        String[] result = supers.get(name);
+
+        if (result == null) {
+            result = readSupers(name);
+            supers.put(name, result);
+        }
+
+        return result;
+    }
+
+    private String[] readSupers(String name) {
+        // The JDK never extends game classes
+        if (name.startsWith("java/")) {
+            return NO_SUPERS;
+        }
+
+        String runtimeName = NameTranslator.toRuntimeName(Domain.CLASS, name);
+
+        try (InputStream stream = classLoader.getResourceAsStream(runtimeName + ".class")) {
+            // Game classes and mod classes alike, a mod class can extend a game class
+            if (stream == null) {
+                LOGGER.debug("Class {} not found", name);
+                return MISSING;
+            }
+
+            ClassReader reader = new ClassReader(stream);
+            String superName = reader.getSuperName();
+            String[] interfaces = reader.getInterfaces();
+            String[] result = new String[(superName != null ? 1 : 0) + interfaces.length];
+            int i = 0;
+
+            if (superName != null) {
+                result[i++] = toIntermediaryName(superName);
+            }
+
+            for (String interfaceName : interfaces) {
+                result[i++] = toIntermediaryName(interfaceName);
+            }
+
+            return result;
+        } catch (IOException e) {
+            LOGGER.debug("Couldn't read class {}", name, e);
+            return MISSING;
+        }
+    }
+
+    // Classes several intermediary names map to are kept under their runtime name, like classes without a mapping
+    private static String toIntermediaryName(String runtimeName) {
+        String name = NameTranslator.toIntermediaryName(Domain.CLASS, runtimeName);
+        return name != null ? name : runtimeName;
+    }
+
+    private static class MemberRef {
+        private final Domain domain;
+        private final String owner;
+        private final String name;
+        private final String descriptor;
+
+        private MemberRef(Domain domain, String owner, String name, String descriptor) {
+            this.domain = domain;
+            this.owner = owner;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof MemberRef)) return false;
+            MemberRef ref = (MemberRef) o;
+            return domain == ref.domain && owner.equals(ref.owner) && name.equals(ref.name) && descriptor.equals(ref.descriptor);
+        }
+
+        @Override
+        public int hashCode() {
+            return ((domain.hashCode() * 31 + owner.hashCode()) * 31 + name.hashCode()) * 31 + descriptor.hashCode();
+        }
+    }
+}
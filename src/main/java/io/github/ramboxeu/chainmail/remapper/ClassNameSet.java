@@ -0,0 +1,105 @@
+package io.github.ramboxeu.chainmail.remapper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * Immutable set of internal class names, packed sorted into a single UTF-8 array so lookups are binary searches.
+ * Takes a fraction of the memory a set of strings would for the tens of thousands of classes a pack can have.
+ */
+final class ClassNameSet {
+    private final byte[] names;
+    private final int[] offsets;
+
+    private ClassNameSet(byte[] names, int[] offsets) {
+        this.names = names;
+        this.offsets = offsets;
+    }
+
+    static ClassNameSet of(Collection<String> classes) {
+        byte[][] encoded = classes.stream()
+                .distinct()
+                .map(name -> name.getBytes(StandardCharsets.UTF_8))
+                .sorted(ClassNameSet::compare)
+                .toArray(byte[][]::new);
+
+        int[] offsets = new int[encoded.length + 1];
+
+        for (int i = 0; i < encoded.length; i++) {
+            offsets[i + 1] = offsets[i] + encoded[i].length;
+        }
+
+        byte[] names = new byte[offsets[encoded.length]];
+
+        for (int i = 0; i < encoded.length; i++) {
+            System.arraycopy(encoded[i], 0, names, offsets[i], encoded[i].length);
+        }
+
+        return new ClassNameSet(names, offsets);
+    }
+
+    int size() {
+        return offsets.length - 1;
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    String get(int index) {
+        return new String(names, offsets[index], offsets[index + 1] - offsets[index], StandardCharsets.UTF_8);
+    }
+
+    boolean contains(String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = size() - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int result = compare(middle, key);
+
+            if (result < 0) {
+                low = middle + 1;
+            } else if (result > 0) {
+                high = middle - 1;
+            } else {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private int compare(int index, byte[] key) {
+        int start = offsets[index];
+        int length = offsets[index + 1] - start;
+
+        for (int i = 0; i < Math.min(length, key.length); i++) {
+            int result = (names[start + i] & 0xFF) - (key[i] & 0xFF);
+
+            if (result != 0) {
+                return result;
+            }
+        }
+
+        return length - key.length;
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            int result = (a[i] & 0xFF) - (b[i] & 0xFF);
+
+            if (result != 0) {
+                return result;
+            }
+        }
+
+        return a.length - b.length;
+    }
+
+    @Override
+    public String toString() {
+        return "ClassNameSet{" + size() + " classes, " + names.length + " bytes}";
+    }
+}
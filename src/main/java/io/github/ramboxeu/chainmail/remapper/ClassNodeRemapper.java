@@ -0,0 +1,265 @@
+package io.github.ramboxeu.chainmail.remapper;
+
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.tree.*;
+
+import java.util.List;
+import java.util.ListIterator;
+
+/**
+ * Remaps a {@link ClassNode} in place, rewriting owners, names, descriptors and signatures on the existing nodes
+ * instead of replaying the class through {@link org.objectweb.asm.commons.ClassRemapper} into a copy. Strings that
+ * don't change keep their instances, so only nodes that reference mapped names are actually written to.
+ * <p>
+ * Covers the same parts of a class as ClassRemapper does for Java 8 classes. Modules, records and permitted
+ * subclasses are left alone, as Fabric mods don't use them.
+ */
+public final class ClassNodeRemapper {
+    private ClassNodeRemapper() {}
+
+    public static void remap(ClassNode node, Remapper remapper) {
+        // Members are mapped in their original owner
+        String owner = node.name;
+
+        for (FieldNode field : node.fields) {
+            remapField(owner, field, remapper);
+        }
+
+        for (MethodNode method : node.methods) {
+            remapMethod(owner, method, remapper);
+        }
+
+        if (node.outerMethod != null) {
+            node.outerMethod = remapper.mapMethodName(node.outerClass, node.outerMethod, node.outerMethodDesc);
+            node.outerMethodDesc = remapper.mapMethodDesc(node.outerMethodDesc);
+        }
+
+        node.name = remapper.mapType(node.name);
+        node.superName = node.superName != null ? remapper.mapType(node.superName) : null;
+        node.signature = remapper.mapSignature(node.signature, false);
+        node.outerClass = node.outerClass != null ? remapper.mapType(node.outerClass) : null;
+        node.nestHostClass = node.nestHostClass != null ? remapper.mapType(node.nestHostClass) : null;
+        remapTypes(node.interfaces, remapper);
+        remapTypes(node.nestMembers, remapper);
+
+        if (node.innerClasses != null) {
+            for (InnerClassNode innerClass : node.innerClasses) {
+                String name = remapper.mapType(innerClass.name);
+
+                if (innerClass.innerName != null && !name.equals(innerClass.name) && name.indexOf('$') >= 0) {
+                    // Simple name of a mapped inner class follows its mapped name, without the index of local classes
+                    int index = name.lastIndexOf('$') + 1;
+
+                    while (index < name.length() && Character.isDigit(name.charAt(index))) {
+                        index++;
+                    }
+
+                    innerClass.innerName = name.substring(index);
+                }
+
+                innerClass.name = name;
+                innerClass.outerName = innerClass.outerName != null ? remapper.mapType(innerClass.outerName) : null;
+            }
+        }
+
+        remapAnnotations(node.visibleAnnotations, remapper);
+        remapAnnotations(node.invisibleAnnotations, remapper);
+        remapAnnotations(node.visibleTypeAnnotations, remapper);
+        remapAnnotations(node.invisibleTypeAnnotations, remapper);
+    }
+
+    private static void remapField(String owner, FieldNode field, Remapper remapper) {
+        field.name = remapper.mapFieldName(owner, field.name, field.desc);
+        field.desc = remapper.mapDesc(field.desc);
+        field.signature = remapper.mapSignature(field.signature, true);
+        field.value = field.value != null ? remapper.mapValue(field.value) : null;
+
+        remapAnnotations(field.visibleAnnotations, remapper);
+        remapAnnotations(field.invisibleAnnotations, remapper);
+        remapAnnotations(field.visibleTypeAnnotations, remapper);
+        remapAnnotations(field.invisibleTypeAnnotations, remapper);
+    }
+
+    private static void remapMethod(String owner, MethodNode method, Remapper remapper) {
+        method.name = remapper.mapMethodName(owner, method.name, method.desc);
+        method.desc = remapper.mapMethodDesc(method.desc);
+        method.signature = remapper.mapSignature(method.signature, false);
+        remapTypes(method.exceptions, remapper);
+
+        if (method.annotationDefault != null) {
+            method.annotationDefault = remapAnnotationValue(method.annotationDefault, remapper);
+        }
+
+        remapAnnotations(method.visibleAnnotations, remapper);
+        remapAnnotations(method.invisibleAnnotations, remapper);
+        remapAnnotations(method.visibleTypeAnnotations, remapper);
+        remapAnnotations(method.invisibleTypeAnnotations, remapper);
+        remapParameterAnnotations(method.visibleParameterAnnotations, remapper);
+        remapParameterAnnotations(method.invisibleParameterAnnotations, remapper);
+        remapAnnotations(method.visibleLocalVariableAnnotations, remapper);
+        remapAnnotations(method.invisibleLocalVariableAnnotations, remapper);
+
+        if (method.tryCatchBlocks != null) {
+            for (TryCatchBlockNode block : method.tryCatchBlocks) {
+                block.type = block.type != null ? remapper.mapType(block.type) : null;
+                remapAnnotations(block.visibleTypeAnnotations, remapper);
+                remapAnnotations(block.invisibleTypeAnnotations, remapper);
+            }
+        }
+
+        if (method.localVariables != null) {
+            for (LocalVariableNode variable : method.localVariables) {
+                variable.desc = remapper.mapDesc(variable.desc);
+                variable.signature = remapper.mapSignature(variable.signature, true);
+            }
+        }
+
+        for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            remapInsn(insn, remapper);
+            remapAnnotations(insn.visibleTypeAnnotations, remapper);
+            remapAnnotations(insn.invisibleTypeAnnotations, remapper);
+        }
+    }
+
+    private static void remapInsn(AbstractInsnNode insn, Remapper remapper) {
+        switch (insn.getType()) {
+            case AbstractInsnNode.FIELD_INSN: {
+                FieldInsnNode field = (FieldInsnNode) insn;
+                field.name = remapper.mapFieldName(field.owner, field.name, field.desc);
+                field.owner = remapper.mapType(field.owner);
+                field.desc = remapper.mapDesc(field.desc);
+                break;
+            }
+            case AbstractInsnNode.METHOD_INSN: {
+                MethodInsnNode method = (MethodInsnNode) insn;
+                method.name = remapper.mapMethodName(method.owner, method.name, method.desc);
+                method.owner = remapper.mapType(method.owner);
+                method.desc = remapper.mapMethodDesc(method.desc);
+                break;
+            }
+            case AbstractInsnNode.INVOKE_DYNAMIC_INSN: {
+                InvokeDynamicInsnNode indy = (InvokeDynamicInsnNode) insn;
+                indy.name = remapper.mapInvokeDynamicMethodName(indy.name, indy.desc);
+                indy.desc = remapper.mapMethodDesc(indy.desc);
+                indy.bsm = (Handle) remapper.mapValue(indy.bsm);
+
+                for (int i = 0; i < indy.bsmArgs.length; i++) {
+                    indy.bsmArgs[i] = remapper.mapValue(indy.bsmArgs[i]);
+                }
+                break;
+            }
+            case AbstractInsnNode.TYPE_INSN: {
+                TypeInsnNode type = (TypeInsnNode) insn;
+                type.desc = remapper.mapType(type.desc);
+                break;
+            }
+            case AbstractInsnNode.MULTIANEWARRAY_INSN: {
+                MultiANewArrayInsnNode array = (MultiANewArrayInsnNode) insn;
+                array.desc = remapper.mapDesc(array.desc);
+                break;
+            }
+            case AbstractInsnNode.LDC_INSN: {
+                LdcInsnNode ldc = (LdcInsnNode) insn;
+                ldc.cst = remapper.mapValue(ldc.cst);
+                break;
+            }
+            case AbstractInsnNode.FRAME: {
+                FrameNode frame = (FrameNode) insn;
+                remapFrameTypes(frame.local, remapper);
+                remapFrameTypes(frame.stack, remapper);
+                break;
+            }
+        }
+    }
+
+    // Frames hold internal names as strings, everything else (primitive types, labels) stays
+    private static void remapFrameTypes(List<Object> types, Remapper remapper) {
+        if (types == null) {
+            return;
+        }
+
+        for (ListIterator<Object> iterator = types.listIterator(); iterator.hasNext(); ) {
+            Object type = iterator.next();
+
+            if (type instanceof String) {
+                String mapped = remapper.mapType((String) type);
+
+                if (!mapped.equals(type)) {
+                    iterator.set(mapped);
+                }
+            }
+        }
+    }
+
+    private static void remapTypes(List<String> types, Remapper remapper) {
+        if (types == null) {
+            return;
+        }
+
+        for (ListIterator<String> iterator = types.listIterator(); iterator.hasNext(); ) {
+            String type = iterator.next();
+            String mapped = remapper.mapType(type);
+
+            if (!mapped.equals(type)) {
+                iterator.set(mapped);
+            }
+        }
+    }
+
+    private static void remapParameterAnnotations(List<AnnotationNode>[] annotations, Remapper remapper) {
+        if (annotations == null) {
+            return;
+        }
+
+        for (List<AnnotationNode> parameter : annotations) {
+            remapAnnotations(parameter, remapper);
+        }
+    }
+
+    private static void remapAnnotations(List<? extends AnnotationNode> annotations, Remapper remapper) {
+        if (annotations == null) {
+            return;
+        }
+
+        for (AnnotationNode annotation : annotations) {
+            remapAnnotation(annotation, remapper);
+        }
+    }
+
+    private static void remapAnnotation(AnnotationNode annotation, Remapper remapper) {
+        if (annotation.desc != null) {
+            annotation.desc = remapper.mapDesc(annotation.desc);
+        }
+
+        if (annotation.values != null) {
+            // Names and values alternate
+            for (int i = 1; i < annotation.values.size(); i += 2) {
+                annotation.values.set(i, remapAnnotationValue(annotation.values.get(i), remapper));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object remapAnnotationValue(Object value, Remapper remapper) {
+        if (value instanceof AnnotationNode) {
+            remapAnnotation((AnnotationNode) value, remapper);
+            return value;
+        } else if (value instanceof String[]) {
+            // Enum constant, descriptor of its type and its name
+            String[] constant = (String[]) value;
+            constant[0] = remapper.mapDesc(constant[0]);
+            return value;
+        } else if (value instanceof List) {
+            List<Object> values = (List<Object>) value;
+
+            for (int i = 0; i < values.size(); i++) {
+                values.set(i, remapAnnotationValue(values.get(i), remapper));
+            }
+
+            return value;
+        }
+
+        return remapper.mapValue(value);
+    }
+}
@@ -0,0 +1,30 @@
+package io.github.ramboxeu.chainmail.remapper;
+
+import org.objectweb.asm.ClassVisitor;
+
+/**
+ * Extra processing of Fabric classes, done in the same traversal as remapping. Stages are found with
+ * {@link java.util.ServiceLoader} through the context class loader and chained in the order they are found, the
+ * remapper always comes last, so stages see classes in intermediary names.
+ */
+public interface ClassTransformStage {
+    /**
+     * Part of the key of cached remapped jars, has to change whenever the output of the stage does, including through
+     * its configuration
+     */
+    String getVersion();
+
+    /**
+     * Checked before anything is visited, a class no stage handles is only remapped
+     *
+     * @param className internal name of the class
+     */
+    default boolean handles(String className) {
+        return true;
+    }
+
+    /**
+     * @param next visitor the stage has to forward the class to
+     */
+    ClassVisitor createVisitor(String className, ClassVisitor next);
+}
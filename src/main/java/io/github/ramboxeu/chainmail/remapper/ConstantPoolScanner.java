@@ -0,0 +1,209 @@
+package io.github.ramboxeu.chainmail.remapper;
+
+import org.objectweb.asm.ClassReader;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Looks for references to game classes in the constant pool of a class, without parsing the rest of it. Every class,
+ * member or descriptor reference ends up in a UTF-8 constant, so a class with no constant containing a game package
+ * or an intermediary name has nothing to remap.
+ * <p>
+ * Intermediary names count on their own, a class can override a game method through a superclass from the same mod,
+ * with a descriptor that has no game types in it.
+ */
+public final class ConstantPoolScanner {
+    private static final int UTF8 = 1;
+    private static final byte[][] PACKAGES = {
+            "net/minecraft/".getBytes(StandardCharsets.UTF_8),
+            "com/mojang/".getBytes(StandardCharsets.UTF_8)
+    };
+
+    private static final byte[][] INTERMEDIARY = {
+            "class_".getBytes(StandardCharsets.UTF_8),
+            "method_".getBytes(StandardCharsets.UTF_8),
+            "field_".getBytes(StandardCharsets.UTF_8)
+    };
+
+    private ConstantPoolScanner() {}
+
+    public static boolean referencesGame(ClassReader reader) {
+        for (int i = 1; i < reader.getItemCount(); i++) {
+            int offset = reader.getItem(i);
+
+            // Second slots of longs and doubles have no item
+            if (offset == 0 || reader.readByte(offset - 1) != UTF8) {
+                continue;
+            }
+
+            int length = reader.readUnsignedShort(offset);
+
+            if (contains(reader, offset + 2, length) || containsIntermediary(reader, offset + 2, length)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Reads the class file only up to the first game reference, or to the end of the constant pool if there is none
+     */
+    public static boolean referencesGame(InputStream stream) throws IOException {
+        DataInputStream input = new DataInputStream(stream);
+        byte[] buffer = new byte[256];
+
+        // Magic and version
+        input.skipBytes(8);
+        int count = input.readUnsignedShort();
+
+        for (int i = 1; i < count; i++) {
+            int tag = input.readUnsignedByte();
+
+            switch (tag) {
+                case UTF8:
+                    int length = input.readUnsignedShort();
+
+                    if (buffer.length < length) {
+                        buffer = new byte[length];
+                    }
+
+                    input.readFully(buffer, 0, length);
+
+                    if (contains(buffer, length) || containsIntermediary(buffer, length)) {
+                        return true;
+                    }
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    input.skipBytes(2);
+                    break;
+                case 15: // MethodHandle
+                    input.skipBytes(3);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    input.skipBytes(4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    input.skipBytes(8);
+                    i++;
+                    break;
+                default:
+                    // Unknown constant, can't tell, so let the transformer have a look
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return number of UTF-8 constants that still contain intermediary names, which had no mapping
+     */
+    public static int countIntermediaryNames(ClassReader reader) {
+        int count = 0;
+
+        for (int i = 1; i < reader.getItemCount(); i++) {
+            int offset = reader.getItem(i);
+
+            if (offset == 0 || reader.readByte(offset - 1) != UTF8) {
+                continue;
+            }
+
+            int length = reader.readUnsignedShort(offset);
+
+            if (containsIntermediary(reader, offset + 2, length)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    // The prefix has to start a name and be followed by a digit
+    private static boolean containsIntermediary(ClassReader reader, int start, int length) {
+        for (byte[] pattern : INTERMEDIARY) {
+            for (int i = start, end = start + length - pattern.length - 1; i <= end; i++) {
+                if ((i == start || !Character.isJavaIdentifierPart(reader.readByte(i - 1))) && matches(reader, i, pattern) && Character.isDigit(reader.readByte(i + pattern.length))) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean containsIntermediary(byte[] data, int length) {
+        for (byte[] pattern : INTERMEDIARY) {
+            search:
+            for (int i = 0, end = length - pattern.length - 1; i <= end; i++) {
+                if (i > 0 && Character.isJavaIdentifierPart(data[i - 1] & 0xFF) || !Character.isDigit(data[i + pattern.length])) {
+                    continue;
+                }
+
+                for (int j = 0; j < pattern.length; j++) {
+                    if (data[i + j] != pattern[j]) {
+                        continue search;
+                    }
+                }
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean contains(ClassReader reader, int start, int length) {
+        for (byte[] pattern : PACKAGES) {
+            for (int i = start, end = start + length - pattern.length; i <= end; i++) {
+                if (matches(reader, i, pattern)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean matches(ClassReader reader, int offset, byte[] pattern) {
+        for (int i = 0; i < pattern.length; i++) {
+            if ((byte) reader.readByte(offset + i) != pattern[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean contains(byte[] data, int length) {
+        for (byte[] pattern : PACKAGES) {
+            search:
+            for (int i = 0, end = length - pattern.length; i <= end; i++) {
+                for (int j = 0; j < pattern.length; j++) {
+                    if (data[i + j] != pattern[j]) {
+                        continue search;
+                    }
+                }
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
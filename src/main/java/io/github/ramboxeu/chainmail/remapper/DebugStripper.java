@@ -0,0 +1,50 @@
+package io.github.ramboxeu.chainmail.remapper;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.LineNumberNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.Iterator;
+
+/**
+ * Drops debug information nothing needs at runtime from classes before they are remapped, opt-in with
+ * {@code -Dchainmail.leanClasses}. Local variable tables (and their generic counterparts) and source debug extensions
+ * are removed. Line numbers and source file names are kept so stack traces stay readable, unless
+ * {@code -Dchainmail.leanClasses.stripLines} is set too. Parameter names of the MethodParameters attribute are kept,
+ * reflection reads them.
+ */
+final class DebugStripper {
+    static final boolean ENABLED = Boolean.getBoolean("chainmail.leanClasses");
+    static final boolean STRIP_LINES = ENABLED && Boolean.getBoolean("chainmail.leanClasses.stripLines");
+
+    private DebugStripper() {}
+
+    /**
+     * @return identifies what is stripped, for keys of anything cached from stripped classes
+     */
+    static String getMode() {
+        return ENABLED ? STRIP_LINES ? "lean-nolines" : "lean" : "full";
+    }
+
+    static void strip(ClassNode node) {
+        node.sourceDebug = null;
+
+        if (STRIP_LINES) {
+            node.sourceFile = null;
+        }
+
+        for (MethodNode method : node.methods) {
+            // Both LocalVariableTable and LocalVariableTypeTable are written from these
+            method.localVariables = null;
+
+            if (STRIP_LINES) {
+                for (Iterator<AbstractInsnNode> iterator = method.instructions.iterator(); iterator.hasNext(); ) {
+                    if (iterator.next() instanceof LineNumberNode) {
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+    }
+}
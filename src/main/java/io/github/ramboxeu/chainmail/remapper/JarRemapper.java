@@ -0,0 +1,307 @@
+package io.github.ramboxeu.chainmail.remapper;
+
+import com.google.common.io.ByteStreams;
+import io.github.ramboxeu.chainmail.mappings.TinyNamingService;
+import io.github.ramboxeu.chainmail.modjson.FabricModJson;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Remaps whole Fabric jars through the {@link TransformPipeline}, the same way their classes would be transformed
+ * while loading. Remapped jars are marked with the mappings and pipeline they were made with, so they aren't
+ * remapped again.
+ * <p>
+ * One class loader and remapper serve every jar remapped by an instance, so the class hierarchy and the descriptor
+ * caches are shared across jars. Jars are added to the class loader as they are remapped.
+ */
+public class JarRemapper implements Closeable {
+    private static final String MARKER = "META-INF/chainmail.remapped";
+
+    private final TinyNamingService service;
+    private final boolean nestedJars;
+    private final JarClassLoader classLoader;
+    // Extracted nested jars, on the class path until this is closed
+    private final List<Path> extracted = new CopyOnWriteArrayList<>();
+    private volatile TinyRemapper remapper;
+
+    /**
+     * @param classPath jars classes can inherit from, besides the class path of Chainmail
+     */
+    public JarRemapper(TinyNamingService service, URL[] classPath) {
+        this(service, classPath, false);
+    }
+
+    /**
+     * @param classPath jars classes can inherit from, besides the class path of Chainmail
+     * @param nestedJars whether jars nested in Fabric jars are remapped into the copy too, the locator resolves nested
+     *                   jars by itself
+     */
+    public JarRemapper(TinyNamingService service, URL[] classPath, boolean nestedJars) {
+        this.service = service;
+        this.nestedJars = nestedJars;
+        this.classLoader = new JarClassLoader(classPath, JarRemapper.class.getClassLoader());
+    }
+
+    private TinyRemapper getRemapper() {
+        TinyRemapper result = remapper;
+
+        if (result == null) {
+            synchronized (this) {
+                result = remapper;
+
+                // Waits for the mappings
+                if (result == null) {
+                    result = new TinyRemapper(service, classLoader);
+                    remapper = result;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes a remapped copy of the jar to the output, which is overwritten
+     */
+    public Result remap(Path jar, Path output) throws IOException {
+        long start = System.nanoTime();
+        Result result = new Result();
+        TinyRemapper remapper = getRemapper();
+
+        // Nested jars are remapped on the same thread, so they count towards the outer jar
+        remapper.getHierarchy().resetComplete();
+        remap(jar, output, remapper, result);
+
+        result.complete = remapper.getHierarchy().isComplete();
+        result.descriptorCache = remapper.getDescriptorCache().toString();
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private void remap(Path jar, Path output, TinyRemapper remapper, Result result) throws IOException {
+        // Other jars are visible too, as classes can extend game classes through them
+        classLoader.addJar(jar);
+
+        try (ZipFile zip = new ZipFile(jar.toFile());
+             ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(output))) {
+            // Classes of the jar can extend classes of its nested jars, so those are on the class path first
+            Map<String, Path> nested = nestedJars ? extractNestedJars(zip) : Collections.emptyMap();
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+
+                if (isSignature(entry.getName()) || entry.getName().equals(MARKER)) {
+                    continue;
+                }
+
+                byte[] bytes;
+
+                if (nested.containsKey(entry.getName())) {
+                    bytes = remapNested(nested.get(entry.getName()), remapper, result);
+                } else {
+                    try (InputStream stream = zip.getInputStream(entry)) {
+                        bytes = ByteStreams.toByteArray(stream);
+                    }
+
+                    if (entry.getName().endsWith(".class")) {
+                        bytes = remapClass(bytes, remapper, result);
+                    }
+                }
+
+                ZipEntry copy = new ZipEntry(entry.getName());
+                copy.setTime(entry.getTime());
+                out.putNextEntry(copy);
+                out.write(bytes);
+                out.closeEntry();
+            }
+
+            out.putNextEntry(new ZipEntry(MARKER));
+            out.write(getMarker().getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+    }
+
+    private Map<String, Path> extractNestedJars(ZipFile zip) throws IOException {
+        ZipEntry modJson = zip.getEntry("fabric.mod.json");
+
+        if (modJson == null) {
+            return Collections.emptyMap();
+        }
+
+        List<String> names;
+
+        try (Reader reader = new InputStreamReader(zip.getInputStream(modJson), StandardCharsets.UTF_8)) {
+            names = FabricModJson.parseNestedJars(reader);
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid fabric.mod.json in " + zip.getName(), e);
+        }
+
+        Map<String, Path> result = new HashMap<>();
+
+        for (String name : names) {
+            ZipEntry entry = zip.getEntry(name);
+
+            if (entry == null || entry.isDirectory()) {
+                continue;
+            }
+
+            // Not next to the output, which may be a mods folder
+            Path nestedJar = Files.createTempFile("chainmail-nested", ".jar");
+            extracted.add(nestedJar);
+
+            try (InputStream stream = zip.getInputStream(entry)) {
+                Files.copy(stream, nestedJar, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            classLoader.addJar(nestedJar);
+            result.put(name, nestedJar);
+        }
+
+        return result;
+    }
+
+    // Nested jars are remapped like the jars of the mods folder, marker included, and written back in place
+    private byte[] remapNested(Path nestedJar, TinyRemapper remapper, Result result) throws IOException {
+        Path nestedOutput = Files.createTempFile("chainmail-nested", ".tmp");
+
+        try {
+            remap(nestedJar, nestedOutput, remapper, result);
+            return Files.readAllBytes(nestedOutput);
+        } finally {
+            Files.deleteIfExists(nestedOutput);
+        }
+    }
+
+    /**
+     * @return whether the jar was already remapped with the current mappings and pipeline
+     */
+    public boolean isRemapped(ZipFile zip) throws IOException {
+        ZipEntry entry = zip.getEntry(MARKER);
+
+        if (entry == null) {
+            return false;
+        }
+
+        try (InputStream stream = zip.getInputStream(entry)) {
+            return new String(ByteStreams.toByteArray(stream), StandardCharsets.UTF_8).equals(getMarker());
+        }
+    }
+
+    private String getMarker() {
+        return service.getMappingsHash() + "\n" + TransformPipeline.get().getId();
+    }
+
+    private static byte[] remapClass(byte[] bytes, TinyRemapper remapper, Result result) {
+        ClassReader reader = new ClassReader(bytes);
+        result.classes++;
+
+        if (!ConstantPoolScanner.referencesGame(reader)) {
+            return bytes;
+        }
+
+        ClassNode node = new ClassNode();
+        reader.accept(node, 0);
+        ClassWriter writer = new ClassWriter(0);
+        TransformPipeline.get().transform(node, remapper).accept(writer);
+
+        byte[] remapped = writer.toByteArray();
+        result.remappedClasses++;
+        result.intermediaryNames += ConstantPoolScanner.countIntermediaryNames(new ClassReader(remapped));
+        return remapped;
+    }
+
+    // Remapped classes no longer match their signatures
+    private static boolean isSignature(String name) {
+        String upperName = name.toUpperCase(Locale.ROOT);
+        return upperName.startsWith("META-INF/") && (upperName.endsWith(".SF") || upperName.endsWith(".RSA") || upperName.endsWith(".DSA") || upperName.endsWith(".EC"));
+    }
+
+    /**
+     * Closes the class loader and deletes extracted nested jars
+     */
+    @Override
+    public void close() throws IOException {
+        classLoader.close();
+
+        for (Path file : extracted) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static class JarClassLoader extends URLClassLoader {
+        private JarClassLoader(URL[] classPath, ClassLoader parent) {
+            super(classPath, parent);
+        }
+
+        // Jars already on the class path are ignored
+        private void addJar(Path jar) throws IOException {
+            addURL(jar.toUri().toURL());
+        }
+    }
+
+    public static class Result {
+        private int classes;
+        private int remappedClasses;
+        private int intermediaryNames;
+        private boolean complete;
+        private long nanos;
+        private String descriptorCache;
+
+        public int getClasses() {
+            return classes;
+        }
+
+        /**
+         * @return classes that referenced the game, the others were copied as they are
+         */
+        public int getRemappedClasses() {
+            return remappedClasses;
+        }
+
+        /**
+         * @return intermediary names left in remapped classes, names that had no mapping
+         */
+        public int getIntermediaryNames() {
+            return intermediaryNames;
+        }
+
+        /**
+         * @return false if some class couldn't be read, members inherited through it may be left unmapped
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public String getDescriptorCache() {
+            return descriptorCache;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package io.github.ramboxeu.chainmail.remapper;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, lock-free memo of string translations. Each key hashes to one slot, and a newer key simply replaces the
+ * entry in its slot. Entries are immutable, so readers never see a key with another key's value and a hit allocates
+ * nothing.
+ */
+public class MemoCache {
+    private final Entry[] entries;
+    private final int mask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param size number of slots, rounded up to a power of two
+     */
+    public MemoCache(int size) {
+        int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        this.entries = new Entry[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * @return remembered value or null
+     */
+    public String get(String key) {
+        Entry entry = entries[slot(key)];
+
+        if (entry != null && entry.key.equals(key)) {
+            hits.increment();
+            return entry.value;
+        }
+
+        misses.increment();
+        return null;
+    }
+
+    public void put(String key, String value) {
+        entries[slot(key)] = new Entry(key, value);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    private int slot(String key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    @Override
+    public String toString() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return String.format(Locale.ROOT, "%d slots, %d/%d hits (%.1f%%)", entries.length, hits, total, total == 0 ? 0 : hits * 100.0 / total);
+    }
+
+    private static class Entry {
+        private final String key;
+        private final String value;
+
+        private Entry(String key, String value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
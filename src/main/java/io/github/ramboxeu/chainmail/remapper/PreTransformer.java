@@ -0,0 +1,199 @@
+package io.github.ramboxeu.chainmail.remapper;
+
+import com.google.common.io.ByteStreams;
+import cpw.mods.modlauncher.api.ITransformerVotingContext;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remaps target classes on background threads before they are loaded, opt-in with {@code -Dchainmail.preTransform}.
+ * <p>
+ * It starts with the first transformed class, as the remapper needs the transforming class loader to read classes
+ * through. From then on the remaining targets are remapped in the order of their names, not in the order they load,
+ * which keeps classes of a package (and usually of a mod) together, and handed out to the transformer when their class
+ * loads. At most {@code -Dchainmail.preTransformLimit} (512 by default) classes are prepared or waiting for their class
+ * to load, more are only started once those are taken, so no prepared class is thrown away.
+ * <p>
+ * A prepared class is only handed out if the bytes it was read from are the ones the class loader read, compared by
+ * their SHA-256. Changes made by launch plugins or transformers running before this one aren't seen, so those mustn't
+ * touch Fabric classes while this mode is on.
+ */
+class PreTransformer {
+    private static final Logger LOGGER = LogManager.getLogger();
+    static final boolean ENABLED = Boolean.getBoolean("chainmail.preTransform");
+    private static final int LIMIT = Integer.getInteger("chainmail.preTransformLimit", 512);
+
+    private final Map<String, Task> tasks = new ConcurrentHashMap<>();
+    // One permit for every class submitted but not taken yet
+    private final Semaphore permits = new Semaphore(LIMIT);
+
+    void start(ClassNameSet classes, TinyRemapper remapper, ClassLoader classLoader) {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "Chainmail Pre-Transform #" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+
+        for (int i = 0; i < classes.size(); i++) {
+            String name = classes.get(i);
+            tasks.put(name, new Task(name, remapper, classLoader));
+        }
+
+        Thread feeder = new Thread(() -> feed(classes, executor), "Chainmail Pre-Transform Feeder");
+        feeder.setDaemon(true);
+        feeder.start();
+        LOGGER.debug("Pre-transforming {} classes on {} threads", classes.size(), threads);
+    }
+
+    private void feed(ClassNameSet classes, ExecutorService executor) {
+        try {
+            for (int i = 0; i < classes.size(); i++) {
+                permits.acquire();
+
+                Task task;
+
+                synchronized (tasks) {
+                    task = tasks.get(classes.get(i));
+
+                    if (task != null) {
+                        task.submitted = true;
+                    }
+                }
+
+                // Loaded before its turn came
+                if (task == null) {
+                    permits.release();
+                    continue;
+                }
+
+                executor.execute(task);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Threads exit once the queue is done
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @return remapped class, or null if the caller has to remap the input itself
+     */
+    ClassNode take(ClassNode input, ITransformerVotingContext context) {
+        Task task;
+
+        synchronized (tasks) {
+            task = tasks.remove(input.name);
+
+            // Not submitted yet, the feeder skips it now
+            if (task == null || !task.submitted) {
+                return null;
+            }
+        }
+
+        Prepared prepared;
+
+        try {
+            // Not started yet, cheaper to do it on the spot than to wait for the queue
+            if (task.cancel(false)) {
+                return null;
+            }
+
+            prepared = task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        } finally {
+            permits.release();
+        }
+
+        if (!Arrays.equals(prepared.sha256, context.getInitialClassSha256())) {
+            LOGGER.debug("{} was loaded from other bytes than it was prepared from, remapping it on load", input.name);
+            return null;
+        }
+
+        return prepared.node;
+    }
+
+    private static Prepared prepare(String name, TinyRemapper remapper, ClassLoader classLoader) throws IOException {
+        byte[] bytes;
+
+        try (InputStream stream = classLoader.getResourceAsStream(name + ".class")) {
+            if (stream == null) {
+                throw new IOException("Class " + name + " not found");
+            }
+
+            bytes = ByteStreams.toByteArray(stream);
+        }
+
+        // Same flags modlauncher reads classes with
+        ClassNode node = new ClassNode();
+        new ClassReader(bytes).accept(node, ClassReader.EXPAND_FRAMES);
+
+        return new Prepared(sha256(bytes), TransformPipeline.get().transform(node, remapper));
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+
+    private static class Prepared {
+        private final byte[] sha256;
+        private final ClassNode node;
+
+        private Prepared(byte[] sha256, ClassNode node) {
+            this.sha256 = sha256;
+            this.node = node;
+        }
+    }
+
+    private class Task extends FutureTask<Prepared> {
+        private final String name;
+        // Guarded by tasks
+        private boolean submitted;
+
+        private Task(String name, TinyRemapper remapper, ClassLoader classLoader) {
+            super(() -> prepare(name, remapper, classLoader));
+            this.name = name;
+        }
+
+        // Failed classes aren't held, nothing would take them and their permit
+        @Override
+        protected void setException(Throwable t) {
+            super.setException(t);
+
+            synchronized (tasks) {
+                if (tasks.remove(name, this)) {
+                    permits.release();
+                }
+            }
+
+            LOGGER.debug("Pre-transforming {} failed, remapping it on load", name, t);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package io.github.ramboxeu.chainmail.remapper;
+
+import io.github.ramboxeu.chainmail.mappings.TinyNamingService;
+import io.github.ramboxeu.chainmail.utils.CacheUtils;
+import net.minecraftforge.fml.loading.FMLLoader;
+import net.minecraftforge.fml.loading.FMLPaths;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipFile;
+
+/**
+ * Keeps remapped copies of Fabric jars on disk, keyed by a hash of the jar and of the mappings, so each jar is remapped
+ * once and later launches load the copy without going through {@link RemapperTransformer}.
+ * <p>
+ * Only the locator resolves jars, the transformation service skips the targets of jars that were actually served from
+ * the cache, see {@link #isServed}. Disabled with {@code -Dchainmail.remapCache=false}, and when a mod provides
+ * {@link ClassTransformStage}s, which can't be loaded before the game and so wouldn't be applied to copies. Jars
+ * remapped ahead of time aren't served as they are then either, their classes go through the stages while loading.
+ */
+public class RemappedJarCache {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("chainmail.remapCache", "true"));
+    private static final int VERSION = 1;
+
+    private static final Map<Path, CompletableFuture<Optional<Path>>> RESOLVED = new ConcurrentHashMap<>();
+    private static final Set<Path> SERVED = ConcurrentHashMap.newKeySet();
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder STORED = new LongAdder();
+    private static final LongAdder INCOMPLETE = new LongAdder();
+    private static volatile JarRemapper remapper;
+    private static volatile boolean disabled;
+
+    /**
+     * @return remapped copy of the jar, or empty if the jar has to be remapped while its classes load
+     */
+    public static Optional<Path> resolve(Path jar) {
+        if (!ENABLED || disabled) {
+            return Optional.empty();
+        }
+
+        TinyNamingService service = TinyNamingService.getInstance();
+
+        // Not remembered, the jar can still be cached once the service is there
+        if (service == null) {
+            LOGGER.debug("Naming service isn't loaded, {} won't be cached", jar);
+            return Optional.empty();
+        }
+
+        // Copies made with srg names standing in for mcp ones would be kept on disk and served for good
+        if (service.isUsingFallbackMappings()) {
+            LOGGER.debug("Mcp mappings aren't composed yet, {} won't be cached", jar);
+            return Optional.empty();
+        }
+
+        Path key = jar.toAbsolutePath().normalize();
+        CompletableFuture<Optional<Path>> future = RESOLVED.get(key);
+
+        if (future == null) {
+            CompletableFuture<Optional<Path>> created = new CompletableFuture<>();
+            future = RESOLVED.putIfAbsent(key, created);
+
+            // Hashing and remapping run outside of the map, other callers of the same jar wait for the result
+            if (future == null) {
+                future = created;
+
+                try {
+                    created.complete(load(key, service));
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Failed to cache remapped {}: {}", key, e.toString());
+                    created.complete(Optional.empty());
+                }
+            }
+        }
+
+        Optional<Path> result = future.join();
+        result.ifPresent(file -> SERVED.add(key));
+        return result;
+    }
+
+    /**
+     * Stops serving remapped jars, has to be called before mods are located
+     */
+    static void disable() {
+        disabled = true;
+    }
+
+    /**
+     * @return whether a remapped copy of the jar was handed out, its classes are loaded remapped already
+     */
+    public static boolean isServed(Path jar) {
+        return SERVED.contains(jar.toAbsolutePath().normalize());
+    }
+
+    /**
+     * @return how many jars were served from disk, remapped and stored, or couldn't be cached
+     */
+    public static String getStats() {
+        return String.format(Locale.ROOT, "%d served from disk, %d remapped and stored, %d not cacheable", HITS.sum(), STORED.sum(), INCOMPLETE.sum());
+    }
+
+    private static Optional<Path> load(Path jar, TinyNamingService service) {
+        try {
+            JarRemapper remapper = getRemapper(service);
+
+            try (ZipFile zip = new ZipFile(jar.toFile())) {
+                if (zip.getEntry("fabric.mod.json") == null) {
+                    return Optional.empty();
+                }
+
+                // Remapped ahead of time, for example by the command line remapper
+                if (remapper.isRemapped(zip)) {
+                    LOGGER.debug("{} is already remapped", jar);
+                    HITS.increment();
+                    return Optional.of(jar);
+                }
+            }
+
+            Path file = CacheUtils.getCacheDir("remapped").resolve(hash(jar, service) + ".jar");
+
+            if (Files.exists(file)) {
+                LOGGER.debug("Using remapped {} for {}", file, jar);
+                HITS.increment();
+                return Optional.of(file);
+            }
+
+            if (remap(jar, file, remapper)) {
+                LOGGER.debug("Cached remapped {} to {}", jar, file);
+                STORED.increment();
+                return Optional.of(file);
+            }
+
+            INCOMPLETE.increment();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to cache remapped {}: {}", jar, e.toString());
+        }
+
+        return Optional.empty();
+    }
+
+    private static boolean remap(Path jar, Path file, JarRemapper remapper) throws IOException {
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+
+        try {
+            JarRemapper.Result result = remapper.remap(jar, temp);
+            LOGGER.debug("Remapped {} in {} ms, descriptor cache: {}", jar, result.getNanos() / 1000000, result.getDescriptorCache());
+
+            // Members inherited through classes that couldn't be read may be wrong, the transformer handles those jars
+            if (!result.isComplete()) {
+                LOGGER.debug("Not caching {}, some classes couldn't be read", jar);
+                return false;
+            }
+
+            CacheUtils.moveAtomically(temp, file);
+            return true;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Shared by every jar, so classes of the game and of other mods are read once
+    private static JarRemapper getRemapper(TinyNamingService service) throws IOException {
+        JarRemapper result = remapper;
+
+        if (result == null) {
+            synchronized (RemappedJarCache.class) {
+                result = remapper;
+
+                if (result == null) {
+                    result = new JarRemapper(service, getClassPath());
+                    remapper = result;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    // Game jars aren't on the class path of the launcher in production, FML found them already
+    private static URL[] getClassPath() throws IOException {
+        List<Path> jars;
+
+        try (Stream<Path> files = Files.list(FMLPaths.MODSDIR.get())) {
+            jars = files.filter(path -> path.toString().toLowerCase(Locale.ROOT).endsWith(".jar")).collect(Collectors.toList());
+        }
+
+        Path[] gamePaths = FMLLoader.getMCPaths();
+
+        if (gamePaths != null) {
+            jars.addAll(Arrays.asList(gamePaths));
+        }
+
+        URL[] result = new URL[jars.size()];
+
+        for (int i = 0; i < result.length; i++) {
+            result[i] = jars.get(i).toUri().toURL();
+        }
+
+        return result;
+    }
+
+    private static String hash(Path jar, TinyNamingService service) throws IOException {
+        MessageDigest digest = CacheUtils.newDigest();
+        digest.update((byte) VERSION);
+        // Copies differ with lean mode and transform stages
+        digest.update(TransformPipeline.get().getId().getBytes(StandardCharsets.UTF_8));
+
+        try (InputStream stream = Files.newInputStream(jar)) {
+            CacheUtils.update(digest, stream);
+        }
+
+        digest.update(service.getMappingsHash().getBytes(StandardCharsets.UTF_8));
+        return CacheUtils.toHex(digest.digest());
+    }
+}
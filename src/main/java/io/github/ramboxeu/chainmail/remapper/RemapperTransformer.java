@@ -3,36 +3,78 @@ package io.github.ramboxeu.chainmail.remapper;
 import cpw.mods.modlauncher.api.ITransformer;
 import cpw.mods.modlauncher.api.ITransformerVotingContext;
 import cpw.mods.modlauncher.api.TransformerVoteResult;
+import io.github.ramboxeu.chainmail.mappings.TinyNamingService;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.objectweb.asm.ClassWriter;
-import org.objectweb.asm.Type;
-import org.objectweb.asm.commons.ClassRemapper;
 import org.objectweb.asm.commons.Remapper;
 import org.objectweb.asm.tree.*;
 import org.objectweb.asm.util.TraceClassVisitor;
 
-import java.util.List;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 public class RemapperTransformer implements ITransformer<ClassNode> {
     private static final Logger LOGGER = LogManager.getLogger();
 
-    private final List<Type> classes;
+    private final ClassNameSet classes;
+    private final Set<Target> targets;
 
-    public RemapperTransformer(List<Type> classes) {
+    // Bound to the naming service on first use
+    private volatile TinyRemapper remapper;
+    private volatile PreTransformer preTransformer;
+
+    RemapperTransformer(ClassNameSet classes) {
         this.classes = classes;
+        this.targets = new TargetSet();
     }
 
     @Override
     public ClassNode transform(ClassNode input, ITransformerVotingContext context) {
         LOGGER.debug("Transforming {}", input.name);
 
-        ClassNode remappedNode = new ClassNode();
-        input.accept(new ClassRemapper(remappedNode, new TinyRemapper()));
+        TinyRemapper remapper = getRemapper();
+        ClassNode prepared = preTransformer != null ? preTransformer.take(input, context) : null;
+
+        if (prepared != null) {
+            return prepared;
+        }
+
+        return TransformPipeline.get().transform(input, remapper);
+    }
+
+    private TinyRemapper getRemapper() {
+        TinyRemapper result = remapper;
+
+        if (result == null) {
+            synchronized (this) {
+                result = remapper;
+
+                if (result == null) {
+                    TinyNamingService service = TinyNamingService.getInstance();
+
+                    if (service == null) {
+                        throw new IllegalStateException("Tiny naming service wasn't loaded");
+                    }
+
+                    ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+                    classLoader = classLoader != null ? classLoader : RemapperTransformer.class.getClassLoader();
+                    result = new TinyRemapper(service, classLoader);
 
-        return remappedNode;
+                    if (PreTransformer.ENABLED) {
+                        PreTransformer pre = new PreTransformer();
+                        pre.start(classes, result, classLoader);
+                        preTransformer = pre;
+                    }
+
+                    remapper = result;
+                }
+            }
+        }
+
+        return result;
     }
 
     @Override
@@ -42,6 +84,40 @@ public class RemapperTransformer implements ITransformer<ClassNode> {
 
     @Override
     public Set<Target> targets() {
-        return classes.stream().map(clazz -> ITransformer.Target.targetPreClass(clazz.getClassName())).collect(Collectors.toSet());
+        return targets;
+    }
+
+    // View of the class names as pre-class targets, targets are only created while modlauncher iterates them
+    private class TargetSet extends AbstractSet<Target> {
+        @Override
+        public Iterator<Target> iterator() {
+            return new Iterator<Target>() {
+                private int index;
+
+                @Override
+                public boolean hasNext() {
+                    return index < classes.size();
+                }
+
+                @Override
+                public Target next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+
+                    return Target.targetPreClass(classes.get(index++).replace('/', '.'));
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return classes.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof Target && classes.contains(((Target) o).getClassName().replace('.', '/'));
+        }
     }
 }
@@ -1,24 +1,40 @@
 package io.github.ramboxeu.chainmail.remapper;
 
 import cpw.mods.modlauncher.api.*;
+import io.github.ramboxeu.chainmail.modjson.FabricModJson;
+import io.github.ramboxeu.chainmail.utils.NestedJarCache;
 import net.minecraftforge.fml.loading.FMLPaths;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.Type;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.FileSystems;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 public class RemapperTransformerService implements ITransformationService {
     private static final Logger LOGGER = LogManager.getLogger();
+    private static final String FABRIC_MOD_JSON = "fabric.mod.json";
+    private static final String CLASS_SUFFIX = ".class";
+    private static final String VERSIONS_PREFIX = "META-INF/versions/";
+    private static final String STAGE_SERVICE = "META-INF/services/" + ClassTransformStage.class.getName();
+
     private final List<ITransformer> transformers = new ArrayList<>();
 
+    // Target classes of each jar, filtered once mods are located
+    private List<Pair<Path, List<String>>> scannedJars;
+
     @Override
     public String name() {
         return "chainmail remapper";
@@ -32,31 +48,131 @@ public class RemapperTransformerService implements ITransformationService {
     @Override
     public void beginScanning(IEnvironment environment) {
         LOGGER.debug("Scanning!");
-        LamdbaExceptionUtils.uncheck(() -> Files.list(FMLPaths.MODSDIR.get()))
-                .filter(path -> path.toString().toLowerCase(Locale.ROOT).endsWith(".jar"))
-                .map(path -> LamdbaExceptionUtils.uncheck(p -> FileSystems.newFileSystem(p, Thread.currentThread().getContextClassLoader()), path))
-                .forEach(fileSystem -> {
-                    fileSystem.getRootDirectories().forEach(path -> {
-                        try {
-                            Stream<Path> classFilePaths = Files.find(path, Integer.MAX_VALUE, (p, a) -> p.getNameCount() > 0 && p.getFileName().toString().endsWith(".class"));
-                            List<Type> classes = new ArrayList<>();
-                            classFilePaths.forEach(classFilePath -> {
-                                try {
-                                    InputStream classFile = Files.newInputStream(classFilePath);
-                                    ClassReader reader = new ClassReader(classFile);
-//                                    LOGGER.debug("Found class: {}", reader.getClassName());
-                                    classes.add(Type.getObjectType(reader.getClassName()));
-                                } catch (IOException e) {
-                                    e.printStackTrace();
-                                }
-                            });
-                            transformers.add(new RemapperTransformer(classes));
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    });
-                });
 
+        List<Path> jars;
+
+        try (Stream<Path> files = Files.list(FMLPaths.MODSDIR.get())) {
+            jars = files.filter(path -> path.toString().toLowerCase(Locale.ROOT).endsWith(".jar"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            LOGGER.error("Error listing mods folder ", e);
+            return;
+        }
+
+        // Jars, and classes inside of them, are read in parallel, results are merged in the order of the sorted jars
+        scannedJars = jars.parallelStream()
+                .map(RemapperTransformerService::scanJar)
+                .flatMap(List::stream)
+                .collect(Collectors.toList());
+    }
+
+    // Class names come from the central directory, classes are only opened to check for game references
+    private static List<Pair<Path, List<String>>> scanJar(Path jar) {
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            // Stages of mods can't be loaded before the game, so copies remapped without them would be served
+            if (zip.getEntry(STAGE_SERVICE) != null) {
+                LOGGER.info("{} provides class transform stages, remapped jars won't be cached", jar.getFileName());
+                RemappedJarCache.disable();
+            }
+
+            // Forge mods and libraries are left alone
+            ZipEntry modJson = zip.getEntry(FABRIC_MOD_JSON);
+
+            if (modJson == null) {
+                return Collections.emptyList();
+            }
+
+            List<String> classes = new ArrayList<>();
+            List<Pair<Path, List<String>>> scanned = new ArrayList<>();
+            scanned.add(Pair.of(jar, classes));
+
+            List<? extends ZipEntry> entries = zip.stream()
+                    .filter(entry -> !entry.isDirectory() && entry.getName().endsWith(CLASS_SUFFIX))
+                    .sorted(Comparator.comparing(ZipEntry::getName))
+                    .collect(Collectors.toList());
+
+            entries.parallelStream()
+                    .map(entry -> readClass(zip, entry))
+                    .filter(Objects::nonNull)
+                    .forEachOrdered(classes::add);
+
+            // Nested jars aren't in the mods folder, they're found the same way the locator finds them
+            for (String nestedJar : readNestedJars(zip, modJson)) {
+                NestedJarCache.mount(zip, nestedJar).ifPresent(path -> scanned.addAll(scanJar(path)));
+            }
+
+            return scanned;
+        } catch (IOException e) {
+            LOGGER.error("Error scanning {} ", jar, e);
+            return Collections.emptyList();
+        }
+    }
+
+    private static List<String> readNestedJars(ZipFile zip, ZipEntry modJson) {
+        try (Reader reader = new InputStreamReader(zip.getInputStream(modJson), StandardCharsets.UTF_8)) {
+            return FabricModJson.parseNestedJars(reader);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Error reading nested jars of {} ", zip.getName(), e);
+            return Collections.emptyList();
+        }
+    }
+
+    private static String readClass(ZipFile zip, ZipEntry entry) {
+        String name = getClassName(entry.getName());
+
+        if (name != null && (name.endsWith("module-info") || name.endsWith("package-info"))) {
+            return null;
+        }
+
+        try (InputStream stream = new BufferedInputStream(zip.getInputStream(entry))) {
+            if (name == null) {
+                // Path doesn't tell the name, the header does
+                ClassReader reader = new ClassReader(stream);
+                return ConstantPoolScanner.referencesGame(reader) ? reader.getClassName() : null;
+            }
+
+            // Classes that never touch the game, like shaded libraries, have nothing to remap
+            return ConstantPoolScanner.referencesGame(stream) ? name : null;
+        } catch (IOException e) {
+            LOGGER.error("Error reading {} ", entry.getName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * @return internal name of the class stored at the path, or null if it can't be told from the path
+     */
+    private static String getClassName(String path) {
+        String name = path.substring(0, path.length() - CLASS_SUFFIX.length());
+
+        // Multi-release jars keep other versions of the same classes here
+        if (name.startsWith(VERSIONS_PREFIX)) {
+            int end = name.indexOf('/', VERSIONS_PREFIX.length());
+            name = end >= 0 ? name.substring(end + 1) : "";
+        } else if (name.startsWith("META-INF/")) {
+            return null;
+        }
+
+        boolean segmentStart = true;
+
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+
+            if (c == '/') {
+                if (segmentStart) {
+                    return null;
+                }
+
+                segmentStart = true;
+            } else if (segmentStart ? Character.isJavaIdentifierStart(c) : Character.isJavaIdentifierPart(c)) {
+                segmentStart = false;
+            } else {
+                return null;
+            }
+        }
+
+        return segmentStart ? null : name;
     }
 
     @Override
@@ -65,8 +181,26 @@ public class RemapperTransformerService implements ITransformationService {
     }
 
 
+    // Asked for once mods are located, by then it's known which jars the locator served already remapped
     @Override
     public List<ITransformer> transformers() {
+        if (scannedJars != null) {
+            // Jars served remapped have nothing left to transform, any other jar is transformed while it loads
+            List<String> classes = scannedJars.stream()
+                    .filter(jar -> !RemappedJarCache.isServed(jar.getLeft()))
+                    .flatMap(jar -> jar.getRight().stream())
+                    .collect(Collectors.toList());
+
+            ClassNameSet targets = ClassNameSet.of(classes);
+            LOGGER.debug("Found {} classes to remap", targets.size());
+            scannedJars = null;
+
+            // One transformer for all jars, modlauncher doesn't have to sort through one per jar
+            if (!targets.isEmpty()) {
+                transformers.add(new RemapperTransformer(targets));
+            }
+        }
+
         return transformers;
     }
 }
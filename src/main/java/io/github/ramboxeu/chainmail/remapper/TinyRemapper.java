@@ -1,82 +1,149 @@
 package io.github.ramboxeu.chainmail.remapper;
 
-import cpw.mods.modlauncher.Launcher;
 import cpw.mods.modlauncher.api.INameMappingService;
+import io.github.ramboxeu.chainmail.mappings.TinyNamingService;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.objectweb.asm.commons.Remapper;
 
-import java.util.Optional;
-import java.util.function.BiFunction;
-
+/**
+ * Remaps intermediary names to runtime names through the naming service it's bound to. Names that don't change are
+ * answered without allocating, so one instance can be shared by all transformed classes.
+ */
 public class TinyRemapper extends Remapper {
     private static final Logger LOGGER = LogManager.getLogger();
 
-    public TinyRemapper() {
+    private static final int CACHE_SIZE = Integer.getInteger("chainmail.descriptorCacheSize", 8192);
+
+    private final TinyNamingService service;
+    private final ClassHierarchy hierarchy;
+
+    // Most descriptors and signatures repeat across classes, these are shared by every class this remaps
+    private final MemoCache descriptors = new MemoCache(CACHE_SIZE);
+    private final MemoCache signatures = new MemoCache(CACHE_SIZE);
+    private final MemoCache typeSignatures = new MemoCache(CACHE_SIZE);
+
+    public TinyRemapper(TinyNamingService service, ClassLoader classLoader) {
+        this.service = service;
+        this.hierarchy = new ClassHierarchy(service.getMappings(), classLoader);
+    }
+
+    ClassHierarchy getHierarchy() {
+        return hierarchy;
+    }
+
+    public MemoCache getDescriptorCache() {
+        return descriptors;
+    }
+
+    public MemoCache getSignatureCache() {
+        return signatures;
+    }
 
+    public MemoCache getTypeSignatureCache() {
+        return typeSignatures;
     }
 
     @Override
-    public String mapMethodName(String owner, String name, String descriptor) {
-        if (isClassWhitelisted(owner)) {
-            String mappedName = mapName(INameMappingService.Domain.METHOD, name);
-            LOGGER.debug("Remapping : Method : {}{} of {}", name, descriptor, owner);
-            return mappedName;
+    public String mapDesc(String descriptor) {
+        String mapped = descriptors.get(descriptor);
+
+        if (mapped == null) {
+            mapped = super.mapDesc(descriptor);
+            descriptors.put(descriptor, mapped);
         }
 
-        return name;
+        return mapped;
     }
 
-    @Override // TODO: 1/2/2021 Whitelist
-    public String mapInvokeDynamicMethodName(String name, String descriptor) {
-        LOGGER.debug("Remapping : Method : dynamic {}{}", name, descriptor);
-        return name;
+    // Method and field descriptors can't be equal, so they share a cache
+    @Override
+    public String mapMethodDesc(String methodDescriptor) {
+        String mapped = descriptors.get(methodDescriptor);
+
+        if (mapped == null) {
+            mapped = super.mapMethodDesc(methodDescriptor);
+            descriptors.put(methodDescriptor, mapped);
+        }
+
+        return mapped;
     }
 
     @Override
-    public String mapFieldName(String owner, String name, String descriptor) {
-        if (isClassWhitelisted(owner)) {
-            String mappedName = mapName(INameMappingService.Domain.FIELD, name);
-            LOGGER.debug("Remapping : Field : {} {} of {}", descriptor, name, owner);
-            return mappedName;
+    public String mapSignature(String signature, boolean typeSignature) {
+        if (signature == null) {
+            return null;
         }
 
-        return name;
+        MemoCache cache = typeSignature ? typeSignatures : signatures;
+        String mapped = cache.get(signature);
+
+        if (mapped == null) {
+            mapped = super.mapSignature(signature, typeSignature);
+            cache.put(signature, mapped);
+        }
+
+        return mapped;
     }
 
     @Override
-    public String mapPackageName(String name) {
-        LOGGER.debug("Remapping : Package : {}", name);
+    public String mapMethodName(String owner, String name, String descriptor) {
+        String declaringOwner = hierarchy.resolveMethod(owner, name, descriptor);
+        String mappedName;
+
+        if (declaringOwner != null) {
+            mappedName = service.mapMethod(declaringOwner, name, descriptor);
+        } else if (isClassMapped(owner)) {
+            mappedName = service.mapMethod(name);
+        } else {
+            return name;
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Remapping : Method : {}{} of {} to {}", name, descriptor, owner, mappedName);
+        }
+
+        return mappedName;
+    }
+
+    @Override // TODO: 1/2/2021 Whitelist
+    public String mapInvokeDynamicMethodName(String name, String descriptor) {
         return name;
     }
 
     @Override
-    public String mapModuleName(String name) {
-        LOGGER.debug("Remapping : Module : {}", name);
-        return name;
+    public String mapFieldName(String owner, String name, String descriptor) {
+        String declaringOwner = hierarchy.resolveField(owner, name, descriptor);
+        String mappedName;
+
+        if (declaringOwner != null) {
+            mappedName = service.mapField(declaringOwner, name, descriptor);
+        } else if (isClassMapped(owner)) {
+            mappedName = service.mapField(name);
+        } else {
+            return name;
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Remapping : Field : {} {} of {} to {}", descriptor, name, owner, mappedName);
+        }
+
+        return mappedName;
     }
 
     @Override
     public String map(String internalName) {
-        if (isClassWhitelisted(internalName)) {
-            String mappedName = mapName(INameMappingService.Domain.CLASS, internalName);
+        String mappedName = service.mapClass(internalName);
+
+        if (mappedName != internalName && LOGGER.isDebugEnabled()) {
             LOGGER.debug("Remapping : {} found {}", internalName, mappedName);
-            return mappedName;
         }
 
-        return internalName;
-    }
-
-    private static String mapName(INameMappingService.Domain domain, String name) {
-        return Optional.ofNullable(Launcher.INSTANCE)
-                .map(Launcher::environment)
-                .flatMap(env -> env.findNameMapping("tiny"))
-                .map(mapper -> mapper.apply(domain, name))
-                .orElse(name);
+        return mappedName;
     }
 
-    // TODO: Improve mojang package matching
-    private boolean isClassWhitelisted(String name) {
-        return name.startsWith("net/minecraft") || (name.startsWith("com/mojang"));
+    // Only game classes are mapped, which replaces matching their packages
+    private boolean isClassMapped(String name) {
+        return service.isMapped(INameMappingService.Domain.CLASS, name);
     }
 }
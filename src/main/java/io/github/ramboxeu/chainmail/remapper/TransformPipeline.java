@@ -0,0 +1,116 @@
+package io.github.ramboxeu.chainmail.remapper;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Everything done to a Fabric class: lean mode stripping, {@link ClassTransformStage}s and remapping. Stages and the
+ * remapper are fused into one traversal, classes no stage handles are remapped in place.
+ * <p>
+ * Stages are loaded from the context class loader, which is the transforming class loader once the game runs, so
+ * stages shipped in mods are found. Those aren't loadable before the game, so remapped jars aren't cached when a mod
+ * provides stages, see {@link RemappedJarCache}.
+ */
+final class TransformPipeline {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final TransformPipeline BASE = new TransformPipeline(TransformPipeline.class.getClassLoader());
+    private static final Map<ClassLoader, TransformPipeline> PIPELINES = new ConcurrentHashMap<>();
+    // Loading stages can load classes that are transformed themselves, those get the base pipeline
+    private static final ThreadLocal<Boolean> LOADING = ThreadLocal.withInitial(() -> false);
+
+    private final ClassLoader classLoader;
+    private final List<ClassTransformStage> stages = new ArrayList<>();
+
+    private TransformPipeline(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+
+        for (ClassTransformStage stage : ServiceLoader.load(ClassTransformStage.class, classLoader)) {
+            stages.add(stage);
+        }
+
+        if (!stages.isEmpty()) {
+            LOGGER.debug("Class transform stages: {}", getId());
+        }
+    }
+
+    static TransformPipeline get() {
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+
+        if (contextClassLoader == null || contextClassLoader == BASE.classLoader || LOADING.get()) {
+            return BASE;
+        }
+
+        TransformPipeline pipeline = PIPELINES.get(contextClassLoader);
+
+        if (pipeline == null) {
+            LOADING.set(true);
+
+            try {
+                pipeline = new TransformPipeline(contextClassLoader);
+            } finally {
+                LOADING.set(false);
+            }
+
+            TransformPipeline existing = PIPELINES.putIfAbsent(contextClassLoader, pipeline);
+            pipeline = existing != null ? existing : pipeline;
+        }
+
+        return pipeline;
+    }
+
+    /**
+     * @return identifies what the pipeline does to classes, anything cached from its output has to include it
+     */
+    String getId() {
+        return DebugStripper.getMode() + stages.stream()
+                .map(stage -> ";" + stage.getClass().getName() + "@" + stage.getVersion())
+                .collect(Collectors.joining());
+    }
+
+    /**
+     * @return transformed class, the input itself when it could be transformed in place
+     */
+    ClassNode transform(ClassNode input, TinyRemapper remapper) {
+        if (DebugStripper.ENABLED) {
+            DebugStripper.strip(input);
+        }
+
+        List<ClassTransformStage> active = Collections.emptyList();
+
+        for (ClassTransformStage stage : stages) {
+            if (stage.handles(input.name)) {
+                if (active.isEmpty()) {
+                    active = new ArrayList<>(stages.size());
+                }
+
+                active.add(stage);
+            }
+        }
+
+        if (active.isEmpty()) {
+            ClassNodeRemapper.remap(input, remapper);
+            return input;
+        }
+
+        ClassNode output = new ClassNode();
+        ClassVisitor visitor = new ClassRemapper(output, remapper);
+
+        for (int i = active.size() - 1; i >= 0; i--) {
+            visitor = active.get(i).createVisitor(input.name, visitor);
+        }
+
+        input.accept(visitor);
+        return output;
+    }
+}
@@ -0,0 +1,81 @@
+package io.github.ramboxeu.chainmail.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public class CacheUtils {
+    /**
+     * Root of Chainmail's caches, relative to the working (game) directory unless overridden with
+     * {@code -Dchainmail.cacheDir}. Resolved without FML, as some caches are needed before FML sets up its paths.
+     */
+    public static Path getCacheDir(String name) throws IOException {
+        Path dir = Paths.get(System.getProperty("chainmail.cacheDir", ".chainmail")).resolve(name);
+        Files.createDirectories(dir);
+        return dir;
+    }
+
+    /**
+     * Writes to a temporary file first and then moves it in place, so concurrent readers (or other JVMs) never see
+     * a partially written file
+     */
+    public static void writeAtomically(Path file, ByteBuffer content) throws IOException {
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (content.hasRemaining()) {
+                    channel.write(content);
+                }
+            }
+
+            moveAtomically(temp, file);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not supported", e);
+        }
+    }
+
+    public static void update(MessageDigest digest, InputStream stream) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+
+        while ((read = stream.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return builder.toString();
+    }
+}
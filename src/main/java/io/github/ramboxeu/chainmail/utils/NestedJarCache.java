@@ -0,0 +1,217 @@
+package io.github.ramboxeu.chainmail.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Makes jars nested in other jars available as plain files, in Chainmail's cache instead of the mods folder, so they
+ * aren't picked up again as mods of their own.
+ * <p>
+ * Files are named after the CRC and size of the entry from the central directory, so a nested jar that's already there
+ * is found without reading the outer jar, and jars embedded by several mods are stored once. Stored entries are copied
+ * as they are, deflated ones are inflated once.
+ * <p>
+ * The cache can be shared by several game instances, so mounting a jar touches its modification time and
+ * {@link #prune()} only deletes jars no launch mounted for {@code -Dchainmail.nestedJarMaxAge} days (30 by default),
+ * and temporary files that haven't been written to for an hour.
+ */
+public class NestedJarCache {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final long MAX_AGE = TimeUnit.DAYS.toMillis(Integer.getInteger("chainmail.nestedJarMaxAge", 30));
+    // Longer than storing a jar can take, younger files may still be written by another launch
+    private static final long TEMP_MAX_AGE = TimeUnit.HOURS.toMillis(1);
+
+    // Mounted files, mounting one that's already being stored waits for it instead of storing it again
+    private static final Map<Path, CompletableFuture<Optional<Path>>> MOUNTED = new ConcurrentHashMap<>();
+
+    /**
+     * Mounts a nested jar from the already open file system of the outer jar
+     *
+     * @param nestedJar path of the nested jar in the file system of the outer jar
+     * @return path of the nested jar, or empty if it couldn't be stored
+     */
+    public static Optional<Path> mount(Path nestedJar) {
+        try {
+            long crc;
+            long size;
+
+            try {
+                Map<String, Object> attributes = Files.readAttributes(nestedJar, "zip:crc,size");
+                crc = ((Number) attributes.get("crc")).longValue();
+                size = ((Number) attributes.get("size")).longValue();
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                // Not a zip file system, the entry is read once more for its CRC
+                CRC32 checksum = new CRC32();
+                byte[] buffer = new byte[8192];
+                size = 0;
+
+                try (InputStream stream = Files.newInputStream(nestedJar)) {
+                    int read;
+
+                    while ((read = stream.read(buffer)) != -1) {
+                        checksum.update(buffer, 0, read);
+                        size += read;
+                    }
+                }
+
+                crc = checksum.getValue();
+            }
+
+            return mount(crc, size, nestedJar.getFileName().toString(), nestedJar.toUri().toString(), () -> Files.newInputStream(nestedJar));
+        } catch (IOException e) {
+            LOGGER.error("Error storing nested jar {} ", nestedJar.toUri(), e);
+            return Optional.empty();
+        }
+    }
+
+    public static Optional<Path> mount(ZipFile zip, String entryName) {
+        ZipEntry entry = zip.getEntry(entryName);
+
+        if (entry == null || entry.isDirectory()) {
+            LOGGER.error("Nested jar {} is missing in {}", entryName, zip.getName());
+            return Optional.empty();
+        }
+
+        String fileName = entryName.substring(entryName.lastIndexOf('/') + 1);
+
+        try {
+            return mount(entry.getCrc(), entry.getSize(), fileName, entryName + " from " + zip.getName(), () -> zip.getInputStream(entry));
+        } catch (IOException e) {
+            LOGGER.error("Error storing nested jar {} from {} ", entryName, zip.getName(), e);
+            return Optional.empty();
+        }
+    }
+
+    private static Optional<Path> mount(long crc, long size, String fileName, String source, EntrySource entry) throws IOException {
+        Path file = CacheUtils.getCacheDir("nested").resolve(String.format(Locale.ROOT, "%08x-%d-%s", crc, size, fileName)).toAbsolutePath();
+        CompletableFuture<Optional<Path>> future = MOUNTED.get(file);
+
+        if (future == null) {
+            CompletableFuture<Optional<Path>> created = new CompletableFuture<>();
+            future = MOUNTED.putIfAbsent(file, created);
+
+            if (future == null) {
+                future = created;
+
+                try {
+                    store(file, size, entry);
+                    LOGGER.debug("Mounted nested jar {} as {}", source, file);
+                    created.complete(Optional.of(file));
+                } catch (IOException | RuntimeException e) {
+                    // Not remembered, so the next mount tries again
+                    MOUNTED.remove(file, created);
+                    created.complete(Optional.empty());
+                    throw e;
+                }
+            }
+        }
+
+        return future.join();
+    }
+
+    private static void store(Path file, long size, EntrySource entry) throws IOException {
+        if (isStored(file, size)) {
+            // Marks it as used for other launches pruning the cache
+            try {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (IOException e) {
+                LOGGER.debug("Failed to touch nested jar {}: {}", file, e.toString());
+            }
+
+            return;
+        }
+
+        // Named after the jar it becomes, so pruning can tell whether it's still being written
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName() + ".", TEMP_SUFFIX);
+
+        try {
+            try (InputStream stream = entry.open()) {
+                Files.copy(stream, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            try {
+                CacheUtils.moveAtomically(temp, file);
+            } catch (IOException e) {
+                // Another launch may have stored the same jar first and still have it open
+                if (!isStored(file, size)) {
+                    throw e;
+                }
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static boolean isStored(Path file, long size) throws IOException {
+        return Files.exists(file) && Files.size(file) == size;
+    }
+
+    /**
+     * Deletes nested jars that weren't mounted by this or another launch for a while, and temporary files left by mounts
+     * that didn't finish. Has to be called once every mod is mounted.
+     */
+    public static void prune() {
+        long now = System.currentTimeMillis();
+
+        try (Stream<Path> files = Files.list(CacheUtils.getCacheDir("nested"))) {
+            files.forEach(file -> prune(file, now));
+        } catch (IOException e) {
+            LOGGER.warn("Failed to prune nested jars: {}", e.toString());
+        }
+    }
+
+    private static void prune(Path file, long now) {
+        Path key = file.toAbsolutePath();
+        String name = key.getFileName().toString();
+        long maxAge = MAX_AGE;
+
+        if (name.endsWith(TEMP_SUFFIX)) {
+            int end = name.lastIndexOf('.', name.length() - TEMP_SUFFIX.length() - 1);
+            key = end > 0 ? key.resolveSibling(name.substring(0, end)) : key;
+            maxAge = TEMP_MAX_AGE;
+        }
+
+        try {
+            if (now - Files.getLastModifiedTime(file).toMillis() < maxAge) {
+                return;
+            }
+        } catch (IOException e) {
+            // Deleted or moved in place meanwhile
+            return;
+        }
+
+        // Deleted while holding the entry of the jar, so it can't be mounted at the same time
+        MOUNTED.computeIfAbsent(key, unused -> {
+            try {
+                Files.deleteIfExists(file);
+                LOGGER.debug("Pruned nested jar {}", file);
+            } catch (IOException e) {
+                LOGGER.debug("Failed to prune nested jar {}: {}", file, e.toString());
+            }
+
+            return null;
+        });
+    }
+
+    private interface EntrySource {
+        InputStream open() throws IOException;
+    }
+}
@@ -0,0 +1,104 @@
+package io.github.ramboxeu.chainmail.mappings;
+
+import cpw.mods.modlauncher.api.INameMappingService.Domain;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MappingImageTest {
+    @Test
+    public void readsWrittenImage() {
+        MappingImage image = wrapCopy(createImage());
+
+        assertNotNull(image);
+        assertEquals("net/minecraft/entity/Entity", image.get(Domain.CLASS, "net/minecraft/class_1297"));
+        assertEquals("func_70071_h_", image.get(Domain.METHOD, "method_5773"));
+        assertEquals("field_70170_p", image.get(Domain.FIELD, "field_6002"));
+        assertNull(image.get(Domain.CLASS, "net/minecraft/class_9999"));
+        assertEquals("net/minecraft/class_1297", image.getReverse(Domain.CLASS, "net/minecraft/entity/Entity"));
+
+        assertEquals("func_70071_h_", image.getMember(Domain.METHOD, "net/minecraft/class_1297", "method_5773", "()V"));
+        assertNull(image.getMember(Domain.METHOD, "net/minecraft/class_1297", "method_5773", "(I)V"));
+        assertEquals("field_70170_p", image.getMember(Domain.FIELD, "net/minecraft/class_1297", "field_6002", "Lnet/minecraft/class_1937;"));
+        assertTrue(image.hasMembers("net/minecraft/class_1297"));
+        assertFalse(image.hasMembers("net/minecraft/class_1937"));
+
+        Map<String, String> methods = new HashMap<>();
+        image.forEach(Domain.METHOD, methods::put);
+        assertEquals(2, image.size(Domain.METHOD));
+        assertEquals("func_70091_d", methods.get("method_5784"));
+    }
+
+    @Test
+    public void marksAmbiguousReverseNames() {
+        MappingImage image = wrapCopy(new MappingImage.Builder()
+                .put(Domain.METHOD, "method_1", "func_1_a")
+                .put(Domain.METHOD, "method_2", "func_1_a")
+                .build());
+
+        assertTrue(image.isReverseAmbiguous(Domain.METHOD, "func_1_a"));
+        assertNull(image.getReverse(Domain.METHOD, "func_1_a"));
+    }
+
+    @Test
+    public void readsEmptyImage() {
+        MappingImage image = wrapCopy(new MappingImage.Builder().build());
+
+        assertNotNull(image);
+        assertNull(image.get(Domain.CLASS, "net/minecraft/class_1"));
+        assertNull(image.getMember(Domain.FIELD, "net/minecraft/class_1", "field_1", "I"));
+    }
+
+    @Test
+    public void rejectsDamagedImages() {
+        ByteBuffer buffer = copy(createImage().getBuffer());
+
+        ByteBuffer truncated = buffer.duplicate();
+        truncated.limit(buffer.capacity() / 2);
+        assertNull(MappingImage.wrap(truncated.slice()));
+
+        ByteBuffer otherVersion = copy(buffer);
+        otherVersion.putInt(4, MappingImage.VERSION + 1);
+        assertNull(MappingImage.wrap(otherVersion));
+
+        ByteBuffer badOffset = copy(buffer);
+        badOffset.putInt(8, Integer.MAX_VALUE);
+        assertNull(MappingImage.wrap(badOffset));
+
+        assertNull(MappingImage.wrap(ByteBuffer.allocate(4)));
+    }
+
+    private static MappingImage createImage() {
+        return new MappingImage.Builder()
+                .put(Domain.CLASS, "net/minecraft/class_1297", "net/minecraft/entity/Entity")
+                .put(Domain.CLASS, "net/minecraft/class_1937", "net/minecraft/world/World")
+                .put(Domain.METHOD, "method_5773", "func_70071_h_")
+                .put(Domain.METHOD, "method_5784", "func_70091_d")
+                .put(Domain.FIELD, "field_6002", "field_70170_p")
+                .putMember(Domain.METHOD, "net/minecraft/class_1297", "method_5773", "()V", "func_70071_h_")
+                .putMember(Domain.FIELD, "net/minecraft/class_1297", "field_6002", "Lnet/minecraft/class_1937;", "field_70170_p")
+                .build();
+    }
+
+    // Read back from a copy, like an image mapped from the cache
+    private static MappingImage wrapCopy(MappingImage image) {
+        return MappingImage.wrap(copy(image.getBuffer()));
+    }
+
+    private static ByteBuffer copy(ByteBuffer buffer) {
+        ByteBuffer source = buffer.duplicate();
+        source.clear();
+        ByteBuffer copy = ByteBuffer.allocate(source.capacity());
+        copy.put(source);
+        copy.clear();
+        return copy;
+    }
+}
@@ -0,0 +1,159 @@
+package io.github.ramboxeu.chainmail.mappings;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MappingParserTest {
+    // More lines than one chunk holds, so the input is split
+    private static final int CLASSES = 3000;
+
+    @Test
+    public void parsesTinyV2EscapedNames() throws IOException {
+        String mappings = "tiny\t2\t0\tofficial\tintermediary\n"
+                + "\tescaped-names\n"
+                + "c\ta\tnet/minecraft/class_1\n"
+                + "\tm\t(La;)V\tb\tmethod_1\n"
+                + "\t\tp\t1\t\tp_1\n"
+                + "\tf\tI\tc\\td\tfield_1\n"
+                + "c\tb\\\\c\tnet/minecraft/class_2\n";
+
+        Recorder recorder = merge(parseTiny(mappings));
+
+        assertEquals(2, recorder.classes.size());
+        assertTrue(recorder.classes.contains("a -> net/minecraft/class_1"));
+        assertTrue(recorder.classes.contains("b\\c -> net/minecraft/class_2"));
+        assertEquals(1, recorder.members.size());
+        assertTrue(recorder.members.contains("method a.b(La;)V -> method_1"));
+        assertTrue(recorder.fields.contains("field a.c\td I -> field_1"));
+    }
+
+    @Test
+    public void unescapesTinyV2Names() {
+        assertEquals("a\\b\n\r\0\tc", MappingParser.unescape("a\\\\b\\n\\r\\0\\tc"));
+        assertEquals("plain", MappingParser.unescape("plain"));
+    }
+
+    @Test
+    public void keepsTinyV2ClassesWholeAcrossChunks() throws IOException {
+        StringBuilder mappings = new StringBuilder("tiny\t2\t0\tofficial\tintermediary\n");
+
+        for (int i = 0; i < CLASSES; i++) {
+            mappings.append("c\tc").append(i).append("\tnet/minecraft/class_").append(i).append('\n');
+            mappings.append("\tm\t()V\tm\tmethod_").append(i).append('\n');
+            mappings.append("\tf\tI\tf\tfield_").append(i).append('\n');
+        }
+
+        List<Recorder> recorders = parseTiny(mappings.toString());
+
+        assertTrue(recorders.size() > 1);
+        assertOwnersInSameChunk(recorders);
+        Recorder recorder = merge(recorders);
+        assertEquals(CLASSES, recorder.classes.size());
+        assertEquals(CLASSES, recorder.members.size());
+        assertEquals(CLASSES, recorder.fields.size());
+        assertTrue(recorder.members.contains("method c2999.m()V -> method_2999"));
+    }
+
+    @Test
+    public void keepsTsrgClassesWholeAcrossChunks() throws IOException {
+        StringBuilder mappings = new StringBuilder();
+
+        for (int i = 0; i < CLASSES; i++) {
+            mappings.append('c').append(i).append(" net/minecraft/C").append(i).append('\n');
+            mappings.append("\tm ()V func_").append(i).append("_a\n");
+            mappings.append("\tf field_").append(i).append("_b\n");
+        }
+
+        List<Recorder> recorders = parse(mappings.toString(), file -> MappingParser.parseSrg(file.toUri().toURL(), Recorder::new));
+
+        assertTrue(recorders.size() > 1);
+        assertOwnersInSameChunk(recorders);
+        Recorder recorder = merge(recorders);
+        assertEquals(CLASSES, recorder.classes.size());
+        assertEquals(CLASSES, recorder.members.size());
+        assertTrue(recorder.classes.contains("c17 -> net/minecraft/C17"));
+        assertTrue(recorder.members.contains("method c17.m()V -> func_17_a"));
+        assertTrue(recorder.fields.contains("field c17.f -> field_17_b"));
+    }
+
+    // A member is visited by the visitor that saw its class
+    private static void assertOwnersInSameChunk(List<Recorder> recorders) {
+        for (Recorder recorder : recorders) {
+            assertTrue(recorder.owners.containsAll(recorder.memberOwners));
+        }
+    }
+
+    private static List<Recorder> parseTiny(String mappings) throws IOException {
+        return parse(mappings, file -> MappingParser.parseTiny(file.toUri().toURL(), Recorder::new));
+    }
+
+    private static List<Recorder> parse(String mappings, Parser parser) throws IOException {
+        Path file = Files.createTempFile("mappings", ".txt");
+
+        try {
+            Files.write(file, mappings.getBytes(StandardCharsets.UTF_8));
+            return parser.parse(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static Recorder merge(List<Recorder> recorders) {
+        Recorder merged = new Recorder();
+
+        for (Recorder recorder : recorders) {
+            merged.classes.addAll(recorder.classes);
+            merged.members.addAll(recorder.members);
+            merged.fields.addAll(recorder.fields);
+        }
+
+        return merged;
+    }
+
+    private interface Parser {
+        List<Recorder> parse(Path file) throws IOException;
+    }
+
+    private static class Recorder implements MappingParser.TinyVisitor, MappingParser.SrgVisitor {
+        private final List<String> classes = new ArrayList<>();
+        private final List<String> members = new ArrayList<>();
+        private final List<String> fields = new ArrayList<>();
+        private final Set<String> owners = new HashSet<>();
+        private final Set<String> memberOwners = new HashSet<>();
+
+        @Override
+        public void visitClass(String obfuscatedName, String mappedName) {
+            classes.add(obfuscatedName + " -> " + mappedName);
+            owners.add(obfuscatedName);
+        }
+
+        @Override
+        public void visitMethod(String owner, String obfuscatedName, String descriptor, String mappedName) {
+            members.add("method " + owner + "." + obfuscatedName + descriptor + " -> " + mappedName);
+            memberOwners.add(owner);
+        }
+
+        @Override
+        public void visitField(String owner, String obfuscatedName, String descriptor, String mappedName) {
+            fields.add("field " + owner + "." + obfuscatedName + " " + descriptor + " -> " + mappedName);
+            memberOwners.add(owner);
+        }
+
+        @Override
+        public void visitField(String owner, String obfuscatedName, String mappedName) {
+            fields.add("field " + owner + "." + obfuscatedName + " -> " + mappedName);
+            memberOwners.add(owner);
+        }
+    }
+}
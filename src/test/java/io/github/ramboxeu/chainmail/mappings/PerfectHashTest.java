@@ -0,0 +1,56 @@
+package io.github.ramboxeu.chainmail.mappings;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class PerfectHashTest {
+    @Test
+    public void givesEveryKeyItsOwnSlot() {
+        for (int size : new int[] { 1, 2, 3, 4, 5, 17, 1000, 20000 }) {
+            List<String> keys = createKeys(size);
+            int[] slots = new int[size];
+            int[] displacements = PerfectHash.build(keys, slots);
+            ByteBuffer buffer = ByteBuffer.allocate(displacements.length * 4);
+
+            for (int displacement : displacements) {
+                buffer.putInt(displacement);
+            }
+
+            assertEquals(PerfectHash.bucketCount(size), displacements.length);
+            BitSet taken = new BitSet(size);
+
+            for (int i = 0; i < size; i++) {
+                assertFalse(taken.get(slots[i]));
+                taken.set(slots[i]);
+                assertEquals(slots[i], PerfectHash.slot(buffer, 0, size, keys.get(i)));
+            }
+
+            assertEquals(size, taken.cardinality());
+            assertEquals(size, taken.length());
+        }
+    }
+
+    @Test
+    public void hashesDependOnSeed() {
+        assertEquals(PerfectHash.hash("method_5773", 1), PerfectHash.hash("method_5773", 1));
+        assertFalse(PerfectHash.hash("method_5773", 1) == PerfectHash.hash("method_5773", 2));
+    }
+
+    // Names shaped like intermediary ones, which share long prefixes
+    private static List<String> createKeys(int size) {
+        List<String> keys = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            keys.add((i % 3 == 0 ? "net/minecraft/class_" : i % 3 == 1 ? "method_" : "field_") + i);
+        }
+
+        return keys;
+    }
+}
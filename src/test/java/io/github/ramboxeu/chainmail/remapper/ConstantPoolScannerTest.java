@@ -0,0 +1,67 @@
+package io.github.ramboxeu.chainmail.remapper;
+
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConstantPoolScannerTest {
+    @Test
+    public void keepsClassOverridingGameMethodThroughModSuperclass() throws IOException {
+        // Extends a mod class that extends a game class, nothing in the constant pool names the game
+        byte[] bytes = createClass("com/mod/ChildEntity", "com/mod/BaseEntity", "method_5773", "()V", null);
+
+        assertTrue(ConstantPoolScanner.referencesGame(new ClassReader(bytes)));
+        assertTrue(ConstantPoolScanner.referencesGame(new ByteArrayInputStream(bytes)));
+    }
+
+    @Test
+    public void keepsClassReferencingGamePackage() throws IOException {
+        byte[] bytes = createClass("com/mod/Helper", "java/lang/Object", "help", "(Lnet/minecraft/class_1297;)V", null);
+
+        assertTrue(ConstantPoolScanner.referencesGame(new ClassReader(bytes)));
+        assertTrue(ConstantPoolScanner.referencesGame(new ByteArrayInputStream(bytes)));
+    }
+
+    @Test
+    public void skipsClassWithoutGameReferences() throws IOException {
+        // Prefixes inside other names, or without a number, aren't intermediary names
+        byte[] bytes = createClass("com/lib/Parser", "java/lang/Object", "my_method_1", "()V", "field_name");
+
+        assertFalse(ConstantPoolScanner.referencesGame(new ClassReader(bytes)));
+        assertFalse(ConstantPoolScanner.referencesGame(new ByteArrayInputStream(bytes)));
+    }
+
+    @Test
+    public void countsIntermediaryNames() {
+        byte[] bytes = createClass("com/mod/ChildEntity", "com/mod/BaseEntity", "method_5773", "()V", "field_6002");
+
+        assertEquals(2, ConstantPoolScanner.countIntermediaryNames(new ClassReader(bytes)));
+    }
+
+    private static byte[] createClass(String name, String superName, String methodName, String methodDesc, String fieldName) {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, superName, null);
+
+        if (fieldName != null) {
+            writer.visitField(Opcodes.ACC_PRIVATE, fieldName, "I", null, null).visitEnd();
+        }
+
+        MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC, methodName, methodDesc, null, null);
+        method.visitCode();
+        method.visitInsn(Opcodes.RETURN);
+        method.visitMaxs(0, methodDesc.startsWith("()") ? 1 : 2);
+        method.visitEnd();
+
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+}